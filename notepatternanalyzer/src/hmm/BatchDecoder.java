@@ -0,0 +1,133 @@
+package hmm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Decodes a batch of sequences against one compiled model. Sequences are decoded a group at a
+ * time with {@link CompiledHMM#viterbiInterleaved(int[][])}, and the groups are spread over a
+ * pool. Paths come back in the order the sequences were given.
+ * @author Alumina
+ */
+public final class BatchDecoder {
+	private static final int GROUP_SIZE = 8;
+	
+	private final CompiledHMM model;
+	
+	public BatchDecoder(CompiledHMM model) {
+		this.model = model;
+	}
+	
+	/**
+	 * Decodes a batch on its own pool
+	 * @param batch the sequences
+	 * @param parallelism the number of threads to use, 1 or less to decode on this thread
+	 * @return the paths and how long it took
+	 */
+	public Result decode(List<? extends HMMObservations<?>> batch, int parallelism) {
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			return decode(batch, pool);
+		} finally {
+			if (pool != null) pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Decodes a batch on a shared pool
+	 * @param batch the sequences
+	 * @param pool the pool to run on, or null to decode on this thread
+	 * @return the paths and how long it took
+	 */
+	public Result decode(final List<? extends HMMObservations<?>> batch, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		// Longest first so the last groups to finish are the short ones, and sequences of about
+		// the same length end up in lockstep together
+		Integer[] order = new Integer[batch.size()];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(batch.get(b).size(), batch.get(a).size()));
+		
+		final int[][] paths = new int[batch.size()][];
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int from = 0; from < order.length; from += GROUP_SIZE) {
+			final int[] group = new int[Math.min(GROUP_SIZE, order.length - from)];
+			for (int g = 0; g < group.length; g++) group[g] = order[from + g];
+			Runnable task = () -> {
+				int[][] observed = new int[group.length][];
+				for (int g = 0; g < group.length; g++) observed[g] = CompiledHMM.states(batch.get(group[g]));
+				int[][] decoded = model.viterbiInterleaved(observed);
+				for (int g = 0; g < group.length; g++) paths[group[g]] = decoded[g];
+			};
+			if (pool == null) task.run();
+			else tasks.add(pool.submit(task));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		
+		List<List<String>> labels = new ArrayList<>(paths.length);
+		long clusters = 0;
+		for (int[] path : paths) {
+			labels.add(model.label(path));
+			clusters += path.length;
+		}
+		return new Result(Collections.unmodifiableList(labels), clusters, System.nanoTime() - start);
+	}
+	
+	/**
+	 * The paths of a batch and how fast it went
+	 */
+	public static final class Result {
+		private final List<List<String>> paths;
+		private final long clusters;
+		private final long nanos;
+		
+		private Result(List<List<String>> paths, long clusters, long nanos) {
+			this.paths = paths;
+			this.clusters = clusters;
+			this.nanos = nanos;
+		}
+		
+		/**
+		 * @return the labels of each sequence, in input order
+		 */
+		public List<List<String>> getPaths() {
+			return paths;
+		}
+		
+		public int getSequences() {
+			return paths.size();
+		}
+		
+		public long getClusters() {
+			return clusters;
+		}
+		
+		public long getNanos() {
+			return nanos;
+		}
+		
+		public double getSequencesPerSecond() {
+			return paths.size() / seconds();
+		}
+		
+		public double getClustersPerSecond() {
+			return clusters / seconds();
+		}
+		
+		// A batch that takes no measurable time would otherwise give infinite or NaN rates
+		private double seconds() {
+			return Math.max(1, nanos) / 1e9;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%d sequences, %d clusters in %.3f ms: %.0f sequences/s, %.0f clusters/s",
+					getSequences(), clusters, nanos / 1e6, getSequencesPerSecond(), getClustersPerSecond());
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package hmm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Trains an HMM on unlabeled sequences with Baum-Welch. Forward-backward uses scaled
+ * probabilities, so long pieces don't underflow. The E-step is split into a fixed number of chunks
+ * of sequences that each fill their own expected counts, which get merged in chunk order, so
+ * results don't depend on the number of threads.
+ * 
+ * The emissions are trained as a full table with a column per observation. Train, then write the
+ * CPTs and load the emissions with {@link EmissionModel#of(CPT)}.
+ * @author Alumina
+ */
+public final class BaumWelch {
+	private static final int CHUNKS = 32;
+	
+	private final int n;
+	private final int m;
+	private final double[] initial;		// [i]
+	private final double[] transition;	// [i * n + j] = P(j | i)
+	private final double[] emission;	// [j * m + o] = P(o | j)
+	private double pseudoCount = 0.01;
+	
+	/**
+	 * Starts training from an existing model
+	 * @param init the initial distribution, one row
+	 * @param trans the transitions, from state by to state
+	 * @param emit the emissions
+	 */
+	public BaumWelch(CPT init, CPT trans, EmissionModel emit) {
+		this.n = emit.getNumStates();
+		this.m = emit.getNumObservations();
+		if (n != init.getNumToStates() || n != trans.getNumFromStates() || n != trans.getNumToStates()) {
+			throw new IllegalArgumentException("invalid file size " + n + " " + init.getNumToStates() + " " + trans.getNumFromStates() + " " + trans.getNumToStates());
+		}
+		this.initial = new double[n];
+		this.transition = new double[n * n];
+		this.emission = new double[n * m];
+		for (int i = 0; i < n; i++) {
+			initial[i] = init.get(0, i);
+			for (int j = 0; j < n; j++) transition[i * n + j] = trans.get(i, j);
+			for (int o = 0; o < m; o++) emission[i * m + o] = emit.get(i, o);
+		}
+	}
+	
+	/**
+	 * Sets the count added to every transition and emission before normalizing, so nothing that
+	 * wasn't seen in training ends up impossible
+	 * @param pseudoCount the count, 0.01 by default
+	 */
+	public void setPseudoCount(double pseudoCount) {
+		this.pseudoCount = pseudoCount;
+	}
+	
+	/**
+	 * Runs one E-step over the corpus and re-estimates the model
+	 * @param sequences the observed states of each sequence
+	 * @param pool the pool to run on, or null to run on this thread
+	 * @return the log10 likelihood of the corpus under the model before this iteration, and how
+	 * long it took
+	 */
+	public Iteration iterate(List<int[]> sequences, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		
+		// Split into chunks, each with its own counts
+		int chunks = Math.max(1, Math.min(sequences.size(), CHUNKS));
+		List<Counts> counts = new ArrayList<>();
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int c = 0; c < chunks; c++) {
+			final Counts chunk = new Counts();
+			final List<int[]> part = sequences.subList(c * sequences.size() / chunks, (c + 1) * sequences.size() / chunks);
+			counts.add(chunk);
+			Runnable task = () -> {
+				for (int[] observations : part) chunk.add(observations);
+			};
+			if (pool == null) task.run();
+			else tasks.add(pool.submit(task));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		
+		// Merge in chunk order
+		Counts total = counts.get(0);
+		for (int c = 1; c < counts.size(); c++) {
+			total.merge(counts.get(c));
+		}
+		total.maximize();
+		return new Iteration(total.logLikelihood / Math.log(10), total.clusters, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Writes the model as comma separated CPTs, loadable with {@link CPT#CPT(String)}
+	 * @param prefix the start of the file names, Initial, Transition and Emission get appended
+	 * @throws IOException
+	 */
+	public void write(String prefix) throws IOException {
+		toCPT(initial, 1, n).write(new File(prefix + "Initial"));
+		toCPT(transition, n, n).write(new File(prefix + "Transition"));
+		toCPT(emission, n, m).write(new File(prefix + "Emission"));
+	}
+	
+	private static CPT toCPT(double[] values, int numFromStates, int numToStates) {
+		CPT cpt = new CPT(numFromStates, numToStates);
+		for (int i = 0; i < numFromStates; i++) {
+			for (int j = 0; j < numToStates; j++) {
+				cpt.set(i, j, values[i * numToStates + j]);
+			}
+		}
+		return cpt;
+	}
+	
+	/**
+	 * Expected counts over part of the corpus
+	 */
+	private final class Counts {
+		private final double[] initialCounts = new double[n];
+		private final double[] transitionCounts = new double[n * n];
+		private final double[] emissionCounts = new double[n * m];
+		private double logLikelihood = 0.0;	// natural log
+		private long clusters = 0;
+		
+		/**
+		 * Scaled forward-backward over one sequence
+		 * @param observations the observed states
+		 */
+		void add(int[] observations) {
+			int T = observations.length;
+			if (T == 0) return;
+			double[] alpha = new double[T * n];
+			double[] scale = new double[T];
+			
+			// forward, each step scaled to sum to 1
+			for (int i = 0; i < n; i++) {
+				alpha[i] = initial[i] * emission[i * m + observations[0]];
+			}
+			scale[0] = normalize(alpha, 0);
+			for (int t = 1; t < T; t++) {
+				int o = observations[t];
+				for (int j = 0; j < n; j++) {
+					double sum = 0.0;
+					for (int i = 0; i < n; i++) {
+						sum += alpha[(t - 1) * n + i] * transition[i * n + j];
+					}
+					alpha[t * n + j] = sum * emission[j * m + o];
+				}
+				scale[t] = normalize(alpha, t * n);
+			}
+			for (int t = 0; t < T; t++) {
+				logLikelihood += Math.log(scale[t]);
+			}
+			clusters += T;
+			
+			// backward with the same scales, alpha * beta is then the posterior
+			double[] beta = new double[n];
+			double[] next = new double[n];	// beta * emission of the step after
+			for (int i = 0; i < n; i++) beta[i] = 1.0;
+			for (int t = T - 1; t >= 0; t--) {
+				int o = observations[t];
+				for (int i = 0; i < n; i++) {
+					double gamma = alpha[t * n + i] * beta[i];
+					emissionCounts[i * m + o] += gamma;
+					if (t == 0) initialCounts[i] += gamma;
+				}
+				if (t == 0) break;
+				
+				for (int j = 0; j < n; j++) {
+					next[j] = emission[j * m + o] * beta[j] / scale[t];
+				}
+				for (int i = 0; i < n; i++) {
+					double a = alpha[(t - 1) * n + i];
+					double sum = 0.0;
+					for (int j = 0; j < n; j++) {
+						double x = transition[i * n + j] * next[j];
+						transitionCounts[i * n + j] += a * x;
+						sum += x;
+					}
+					beta[i] = sum;
+				}
+			}
+		}
+		
+		void merge(Counts other) {
+			for (int i = 0; i < initialCounts.length; i++) initialCounts[i] += other.initialCounts[i];
+			for (int i = 0; i < transitionCounts.length; i++) transitionCounts[i] += other.transitionCounts[i];
+			for (int i = 0; i < emissionCounts.length; i++) emissionCounts[i] += other.emissionCounts[i];
+			logLikelihood += other.logLikelihood;
+			clusters += other.clusters;
+		}
+		
+		/**
+		 * The M-step, replaces the model with the normalized counts
+		 */
+		void maximize() {
+			normalizeInto(initialCounts, 0, n, 0.0, initial);
+			for (int i = 0; i < n; i++) {
+				normalizeInto(transitionCounts, i * n, n, pseudoCount, transition);
+				normalizeInto(emissionCounts, i * m, m, pseudoCount, emission);
+			}
+		}
+	}
+	
+	/**
+	 * Scales a step of the forward pass to sum to 1
+	 * @return the sum before scaling
+	 */
+	private double normalize(double[] alpha, int from) {
+		double sum = 0.0;
+		for (int i = from; i < from + n; i++) sum += alpha[i];
+		if (sum == 0.0) throw new IllegalArgumentException("Observation at " + from / n + " is impossible in every state");
+		for (int i = from; i < from + n; i++) alpha[i] /= sum;
+		return sum;
+	}
+	
+	/**
+	 * Turns a row of counts into probabilities. Rows that never came up are left as they were.
+	 */
+	private static void normalizeInto(double[] counts, int from, int length, double pseudoCount, double[] probabilities) {
+		double sum = 0.0;
+		for (int k = from; k < from + length; k++) sum += counts[k] + pseudoCount;
+		if (sum == 0.0) return;
+		for (int k = from; k < from + length; k++) probabilities[k] = (counts[k] + pseudoCount) / sum;
+	}
+	
+	/**
+	 * The log10 likelihood and time of an iteration
+	 */
+	public static final class Iteration {
+		private final double logLikelihood;
+		private final long clusters;
+		private final long nanos;
+		
+		private Iteration(double logLikelihood, long clusters, long nanos) {
+			this.logLikelihood = logLikelihood;
+			this.clusters = clusters;
+			this.nanos = nanos;
+		}
+		
+		public double getLogLikelihood() {
+			return logLikelihood;
+		}
+		
+		public long getClusters() {
+			return clusters;
+		}
+		
+		public long getNanos() {
+			return nanos;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("log10 likelihood %.3f (%.4f per cluster) in %.1f ms", logLikelihood, logLikelihood / clusters, nanos / 1e6);
+		}
+	}
+}
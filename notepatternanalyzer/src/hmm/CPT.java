@@ -21,6 +21,17 @@ public class CPT {
 		parse(new File(filename));
 	}
 	
+	/**
+	 * An empty CPT of the given size, filled with zeros
+	 * @param numFromStates
+	 * @param numToStates
+	 */
+	public CPT(int numFromStates, int numToStates) {
+		this();
+		addToState(numToStates);
+		addFromState(numFromStates);
+	}
+	
 	private void addFromState(int toAdd) {
 		for (int i = 0; i < toAdd; i++) {
 			List<Double> temp = new ArrayList<>();
@@ -55,6 +66,13 @@ public class CPT {
 		return cpt.get(from).get(to);
 	}
 	
+	/**
+	 * Reads a value as it is, without normalizing the row
+	 */
+	double getRaw(int from, int to) {
+		return cpt.get(from).get(to);
+	}
+	
 	public void set(int from, int to, double value) {
 		cpt.get(from).set(to, value);
 		normalized.set(from, false);
@@ -87,6 +105,12 @@ public class CPT {
 		normalized.set(rowInd, true);
 	}
 	
+	/**
+	 * Expands the columns into every subset of them, each weighted by the sum of its members
+	 * @return the expanded CPT, with 2^numToStates columns
+	 * @deprecated builds every column up front, use {@link SubsetSumEmission} instead
+	 */
+	@Deprecated
 	public CPT powerup() {
 		int poweredStates = 1 << numToStates;
 		CPT powered = new CPT();
@@ -128,6 +152,26 @@ public class CPT {
 		}
 	}
 	
+	/**
+	 * Writes the CPT in the comma separated format it's parsed from
+	 * @param file the file to write
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < numFromStates; i++) {
+				line.setLength(0);
+				for (int j = 0; j < numToStates; j++) {
+					if (j > 0) line.append(',');
+					line.append(cpt.get(i).get(j));
+				}
+				pw.println(line);
+			}
+			if (pw.checkError()) throw new IOException("Error writing " + file);
+		}
+	}
+	
 	@Override
 	public String toString() {
 		String str = "";
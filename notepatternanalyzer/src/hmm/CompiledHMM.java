@@ -0,0 +1,476 @@
+package hmm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An HMM compiled down to flat log10 space arrays for decoding. The CPTs are normalized and
+ * logged once here, so Viterbi only adds and compares doubles.
+ * 
+ * Transitions are stored transposed (row j holds every transition into j) so the inner loop
+ * walks memory in order. Emissions come from an {@link EmissionCache}, one vector per observation.
+ * @author Alumina
+ */
+public final class CompiledHMM {
+	private final int numStates;
+	private final int numObservations;
+	private final double[] logInitial;		// [i]
+	private final double[] logTransition;	// [j * numStates + i] = log10 P(j | i)
+	private final EmissionCache emissions;
+	private final List<String> labels;
+	
+	private CompiledHMM(int numStates, double[] logInitial, double[] logTransition, EmissionCache emissions, List<String> labels) {
+		this.numStates = numStates;
+		this.numObservations = emissions.getNumObservations();
+		this.logInitial = logInitial;
+		this.logTransition = logTransition;
+		this.emissions = emissions;
+		this.labels = labels;
+	}
+	
+	/**
+	 * Normalizes and logs the CPTs
+	 * @param init the initial distribution, one row
+	 * @param trans the transitions, from state by to state
+	 * @param emit the emissions, state by observation
+	 * @param labels the names of the states
+	 * @return the compiled model
+	 * @throws IllegalArgumentException if the sizes don't line up
+	 */
+	public static CompiledHMM compile(CPT init, CPT trans, CPT emit, List<String> labels) {
+		return compile(init, trans, EmissionModel.of(emit), labels);
+	}
+	
+	/**
+	 * Normalizes and logs the CPTs
+	 * @param init the initial distribution, one row
+	 * @param trans the transitions, from state by to state
+	 * @param emit the emission model
+	 * @param labels the names of the states
+	 * @return the compiled model
+	 * @throws IllegalArgumentException if the sizes don't line up
+	 */
+	public static CompiledHMM compile(CPT init, CPT trans, EmissionModel emit, List<String> labels) {
+		int n = labels.size();
+		if (n != init.getNumToStates() || n != trans.getNumFromStates() || n != trans.getNumToStates() || n != emit.getNumStates()) {
+			throw new IllegalArgumentException("invalid file size " + n + " " + init.getNumToStates() + " " + trans.getNumFromStates() + " " + trans.getNumToStates() + " " + emit.getNumStates());
+		}
+		double[] initial = new double[n];
+		double[] transition = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			initial[i] = init.get(0, i);
+			for (int j = 0; j < n; j++) {
+				transition[i * n + j] = trans.get(i, j);
+			}
+		}
+		return compile(initial, transition, emit, labels);
+	}
+	
+	/**
+	 * Logs already normalized probabilities
+	 * @param initial the initial distribution
+	 * @param transition the transitions, [i * n + j] = P(j | i)
+	 * @param emit the emission model
+	 * @param labels the names of the states
+	 * @return the compiled model
+	 * @throws IllegalArgumentException if the sizes don't line up
+	 */
+	static CompiledHMM compile(double[] initial, double[] transition, EmissionModel emit, List<String> labels) {
+		int n = labels.size();
+		if (n != initial.length || n * n != transition.length || n != emit.getNumStates()) {
+			throw new IllegalArgumentException("invalid model size " + n + " " + initial.length + " " + transition.length + " " + emit.getNumStates());
+		}
+		double[] logInitial = new double[n];
+		for (int i = 0; i < n; i++) {
+			logInitial[i] = Math.log10(initial[i]);
+		}
+		
+		double[] logTransition = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				logTransition[j * n + i] = Math.log10(transition[i * n + j]);
+			}
+		}
+		
+		return new CompiledHMM(n, logInitial, logTransition, new EmissionCache(emit), Collections.unmodifiableList(new ArrayList<>(labels)));
+	}
+	
+	/**
+	 * Pulls the observed states out of a sequence
+	 * @param observations the sequence
+	 * @return the states in order
+	 */
+	public static int[] states(HMMObservations<?> observations) {
+		int[] states = new int[observations.size()];
+		int t = 0;
+		for (HMMObservable o : observations) {
+			states[t++] = o.getState();
+		}
+		return states;
+	}
+	
+	/**
+	 * Finds the most likely hidden states with the Viterbi algorithm
+	 * @param observations the observed states, each in [0, getNumObservations())
+	 * @return the index of the most likely hidden state at each step, in time order
+	 */
+	public int[] viterbi(int[] observations) {
+		int n = numStates;
+		int T = observations.length;
+		if (T == 0) return new int[0];
+		
+		double[] liLast = new double[n];
+		double[] liCurr = new double[n];
+		int[] argmaxes = new int[n];
+		Backpointers phi = new Backpointers(T * n, n);
+		
+		// base case t=0
+		start(observations[0], liCurr);
+		
+		// recursive step
+		for (int t = 1; t < T; t++) {
+			double[] swap = liLast;
+			liLast = liCurr;
+			liCurr = swap;
+			step(liLast, observations[t], liCurr, argmaxes);
+			phi.set(t * n, argmaxes);
+		}
+		
+		return backtrack(phi, liCurr, T);
+	}
+	
+	/**
+	 * Viterbi in O(sqrt(T) * n) memory instead of O(T * n). The forward pass only keeps the score
+	 * vector every sqrt(T) steps, then backtracking recomputes one segment's backpointers at a time
+	 * from its checkpoint. That's about twice the work, and gives exactly the same path as
+	 * {@link #viterbi(int[])}.
+	 * @param observations the observed states, each in [0, getNumObservations())
+	 * @return the index of the most likely hidden state at each step, in time order
+	 */
+	public int[] viterbiCheckpointed(int[] observations) {
+		int n = numStates;
+		int T = observations.length;
+		if (T == 0) return new int[0];
+		
+		int segment = (int) Math.ceil(Math.sqrt(T));
+		int numCheckpoints = (T - 1) / segment + 1;	// at t = 0, segment, 2 * segment...
+		double[] checkpoints = new double[numCheckpoints * n];
+		
+		double[] liLast = new double[n];
+		double[] liCurr = new double[n];
+		int[] argmaxes = new int[n];
+		
+		// forward pass, keeping only the checkpoints
+		start(observations[0], liCurr);
+		System.arraycopy(liCurr, 0, checkpoints, 0, n);
+		for (int t = 1; t < T; t++) {
+			double[] swap = liLast;
+			liLast = liCurr;
+			liCurr = swap;
+			step(liLast, observations[t], liCurr, argmaxes);
+			if (t % segment == 0) System.arraycopy(liCurr, 0, checkpoints, (t / segment) * n, n);
+		}
+		
+		int[] path = new int[T];
+		path[T - 1] = argmax(liCurr);
+		
+		// backtrack a segment at a time, last to first
+		Backpointers phi = new Backpointers(segment * n, n);
+		for (int c = numCheckpoints - 1; c >= 0; c--) {
+			int from = c * segment;
+			int to = Math.min(from + segment, T - 1);
+			
+			// redo the steps after the checkpoint up to where the path is already known
+			System.arraycopy(checkpoints, c * n, liCurr, 0, n);
+			for (int t = from + 1; t <= to; t++) {
+				double[] swap = liLast;
+				liLast = liCurr;
+				liCurr = swap;
+				step(liLast, observations[t], liCurr, argmaxes);
+				phi.set((t - from - 1) * n, argmaxes);
+			}
+			for (int t = to; t > from; t--) {
+				path[t - 1] = phi.get((t - from - 1) * n + path[t]);
+			}
+		}
+		return path;
+	}
+	
+	/**
+	 * Viterbi that only follows the best states of each step. Only the top width states that are
+	 * also within threshold of the best score are used as sources for the next step, so a step
+	 * costs O(width * n) instead of O(n^2). Not exact: the best path can get pruned, see
+	 * Benchmark's beam mode for how often that happens. With width >= n and an infinite threshold
+	 * it gives the same path as {@link #viterbi(int[])}.
+	 * @param observations the observed states, each in [0, getNumObservations())
+	 * @param width the most states to keep per step
+	 * @param threshold how far below the best log10 score a state can be and still be kept
+	 * @return the index of the most likely hidden state at each step, in time order
+	 */
+	public int[] viterbiBeam(int[] observations, int width, double threshold) {
+		if (width < 1) throw new IllegalArgumentException("Beam width has to be at least 1: " + width);
+		int n = numStates;
+		int T = observations.length;
+		if (T == 0) return new int[0];
+		width = Math.min(width, n);
+		
+		double[] liLast = new double[n];
+		double[] liCurr = new double[n];
+		int[] beam = new int[width];	// min-heap of states by score, then sorted by state
+		Backpointers phi = new Backpointers(T * n, n);
+		
+		// base case t=0
+		start(observations[0], liCurr);
+		
+		// recursive step
+		for (int t = 1; t < T; t++) {
+			double[] swap = liLast;
+			liLast = liCurr;
+			liCurr = swap;
+			int size = prune(liLast, width, threshold, beam);
+			double[] emit = emissions.row(observations[t]);
+			
+			for (int j = 0; j < n; j++) {
+				int row = j * n;
+				
+				// get max over the beam
+				int argmax = beam[0];
+				double max = liLast[argmax] + logTransition[row + argmax];
+				for (int b = 1; b < size; b++) {
+					int i = beam[b];
+					double expr = liLast[i] + logTransition[row + i];
+					if (expr > max) {
+						max = expr;
+						argmax = i;
+					}
+				}
+				
+				liCurr[j] = max + emit[j];
+				phi.set(t * n + j, argmax);
+			}
+		}
+		
+		return backtrack(phi, liCurr, T);
+	}
+	
+	/**
+	 * Picks the states to keep for the next step
+	 * @param scores the scores of the step
+	 * @param width the most states to keep
+	 * @param threshold how far below the best score a state can be
+	 * @param beam where to put the kept states, in increasing order so ties go the same way as
+	 * the exact decoder
+	 * @return how many states were kept
+	 */
+	private static int prune(double[] scores, int width, double threshold, int[] beam) {
+		double cutoff = scores[argmax(scores)] - threshold;
+		int size = 0;
+		for (int i = 0; i < scores.length; i++) {
+			double score = scores[i];
+			if (score < cutoff) continue;
+			if (size < width) {
+				// sift up
+				int c = size++;
+				while (c > 0) {
+					int p = (c - 1) >>> 1;
+					if (scores[beam[p]] <= score) break;
+					beam[c] = beam[p];
+					c = p;
+				}
+				beam[c] = i;
+			} else if (score > scores[beam[0]]) {
+				// replace the worst and sift down
+				int c = 0;
+				while (true) {
+					int l = 2 * c + 1;
+					if (l >= size) break;
+					if (l + 1 < size && scores[beam[l + 1]] < scores[beam[l]]) l++;
+					if (scores[beam[l]] >= score) break;
+					beam[c] = beam[l];
+					c = l;
+				}
+				beam[c] = i;
+			}
+		}
+		Arrays.sort(beam, 0, size);
+		return size;
+	}
+	
+	/**
+	 * Runs Viterbi on a group of sequences in lockstep, one time step of every sequence before
+	 * the next, so they all share the same transition rows while those are in cache. Used by
+	 * {@link BatchDecoder}.
+	 * @param group the observed states of each sequence
+	 * @return the path of each sequence, the same as {@link #viterbi(int[])} would give
+	 */
+	int[][] viterbiInterleaved(int[][] group) {
+		int n = numStates;
+		int g = group.length;
+		double[][] liLast = new double[g][n];
+		double[][] liCurr = new double[g][n];
+		int[] argmaxes = new int[n];
+		Backpointers[] phi = new Backpointers[g];
+		
+		// base case t=0
+		int maxT = 0;
+		for (int s = 0; s < g; s++) {
+			int T = group[s].length;
+			if (T == 0) continue;
+			maxT = Math.max(maxT, T);
+			phi[s] = new Backpointers(T * n, n);
+			start(group[s][0], liCurr[s]);
+		}
+		
+		// recursive step, every sequence that is still going
+		for (int t = 1; t < maxT; t++) {
+			for (int s = 0; s < g; s++) {
+				if (t >= group[s].length) continue;
+				double[] swap = liLast[s];
+				liLast[s] = liCurr[s];
+				liCurr[s] = swap;
+				step(liLast[s], group[s][t], liCurr[s], argmaxes);
+				phi[s].set(t * n, argmaxes);
+			}
+		}
+		
+		int[][] paths = new int[g][];
+		for (int s = 0; s < g; s++) {
+			paths[s] = group[s].length == 0 ? new int[0] : backtrack(phi[s], liCurr[s], group[s].length);
+		}
+		return paths;
+	}
+	
+	/**
+	 * Follows the backpointers from the most likely last state
+	 * @param phi the backpointers, T rows of numStates
+	 * @param liCurr the scores of the last step
+	 * @param T the number of steps
+	 * @return the path
+	 */
+	private int[] backtrack(Backpointers phi, double[] liCurr, int T) {
+		int n = numStates;
+		int[] path = new int[T];
+		path[T - 1] = argmax(liCurr);
+		for (int t = T - 1; t > 0; t--) {
+			path[t - 1] = phi.get(t * n + path[t]);
+		}
+		return path;
+	}
+	
+	/**
+	 * Scores of the first step
+	 * @param observation the first observation
+	 * @param liCurr where to put the scores
+	 */
+	void start(int observation, double[] liCurr) {
+		double[] emit = emissions.row(observation);
+		for (int i = 0; i < numStates; i++) {
+			liCurr[i] = logInitial[i] + emit[i];
+		}
+	}
+	
+	/**
+	 * One Viterbi step
+	 * @param liLast the scores of the previous step
+	 * @param observation what was observed at this step
+	 * @param liCurr where to put the scores of this step
+	 * @param argmaxes where to put the best previous state for each state
+	 */
+	void step(double[] liLast, int observation, double[] liCurr, int[] argmaxes) {
+		int n = numStates;
+		double[] emit = emissions.row(observation);
+		for (int j = 0; j < n; j++) {
+			int row = j * n;
+			
+			// get max
+			double max = liLast[0] + logTransition[row];
+			int argmax = 0;
+			for (int i = 1; i < n; i++) {
+				double expr = liLast[i] + logTransition[row + i];
+				if (expr > max) {
+					max = expr;
+					argmax = i;
+				}
+			}
+			
+			liCurr[j] = max + emit[j];
+			argmaxes[j] = argmax;
+		}
+	}
+	
+	static int argmax(double[] values) {
+		int argmax = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[argmax]) argmax = i;
+		}
+		return argmax;
+	}
+	
+	/**
+	 * Backpointers in the smallest array that fits the number of states
+	 */
+	static final class Backpointers {
+		private final byte[] bytes;
+		private final short[] shorts;
+		private final int[] ints;
+		
+		Backpointers(int size, int numStates) {
+			bytes = numStates <= 1 << 8 ? new byte[size] : null;
+			shorts = bytes == null && numStates <= 1 << 16 ? new short[size] : null;
+			ints = bytes == null && shorts == null ? new int[size] : null;
+		}
+		
+		void set(int index, int argmax) {
+			if (bytes != null) bytes[index] = (byte) argmax;
+			else if (shorts != null) shorts[index] = (short) argmax;
+			else ints[index] = argmax;
+		}
+		
+		void set(int offset, int[] argmaxes) {
+			if (bytes != null) {
+				for (int j = 0; j < argmaxes.length; j++) bytes[offset + j] = (byte) argmaxes[j];
+			} else if (shorts != null) {
+				for (int j = 0; j < argmaxes.length; j++) shorts[offset + j] = (short) argmaxes[j];
+			} else {
+				System.arraycopy(argmaxes, 0, ints, offset, argmaxes.length);
+			}
+		}
+		
+		int get(int index) {
+			if (bytes != null) return bytes[index] & 0xFF;
+			if (shorts != null) return shorts[index] & 0xFFFF;
+			return ints[index];
+		}
+	}
+	
+	/**
+	 * Turns a path of state indices into labels
+	 * @param path the state indices
+	 * @return the labels in the same order
+	 */
+	public List<String> label(int[] path) {
+		List<String> hiddenStates = new ArrayList<>(path.length);
+		for (int state : path) {
+			hiddenStates.add(labels.get(state));
+		}
+		return hiddenStates;
+	}
+	
+	public int getNumStates() {
+		return numStates;
+	}
+	
+	public EmissionCache getEmissions() {
+		return emissions;
+	}
+	
+	public int getNumObservations() {
+		return numObservations;
+	}
+	
+	public List<String> getLabels() {
+		return labels;
+	}
+}
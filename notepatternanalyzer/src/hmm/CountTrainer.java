@@ -0,0 +1,175 @@
+package hmm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Estimates the CPTs of an HMM from labeled sequences by counting. Each add borrows a set of
+ * primitive count arrays no other add is using and gives it back when done, so adding never
+ * locks, and there are only ever as many sets as adds that ran at once. The sets aren't tied to
+ * threads, so nothing is left behind on the threads of a shared pool. The counts are summed when
+ * the CPTs get written. Counts are whole numbers, so the sums come out the same however the work
+ * was split.
+ * 
+ * add can be called from any number of threads, but only write once they're all done.
+ * @author Alumina
+ */
+public final class CountTrainer {
+	private final List<String> labels;
+	private final Map<String, Integer> labelIndex = new HashMap<>();
+	private final int n;
+	private final int m;
+	private double pseudoCount = 0.01;
+	
+	private final Queue<Counts> allCounts = new ConcurrentLinkedQueue<>();
+	private final Queue<Counts> idleCounts = new ConcurrentLinkedQueue<>();	// not in use by an add
+	
+	/**
+	 * @param labels the names of the hidden states
+	 * @param numObservations the number of observed states, 4096 for pitch classes
+	 */
+	public CountTrainer(List<String> labels, int numObservations) {
+		this.labels = labels;
+		this.n = labels.size();
+		this.m = numObservations;
+		for (int i = 0; i < n; i++) {
+			labelIndex.put(labels.get(i), i);
+		}
+	}
+	
+	/**
+	 * Sets the count added to every cell before normalizing, so nothing unseen ends up impossible
+	 * @param pseudoCount the count, 0.01 by default
+	 */
+	public void setPseudoCount(double pseudoCount) {
+		this.pseudoCount = pseudoCount;
+	}
+	
+	/**
+	 * Counts a labeled sequence
+	 * @param hidden the label of each step
+	 * @param observations the observed state of each step
+	 * @throws IllegalArgumentException on an unknown label or mismatched lengths
+	 */
+	public void add(List<String> hidden, int[] observations) {
+		int[] states = new int[hidden.size()];
+		for (int t = 0; t < states.length; t++) {
+			Integer state = labelIndex.get(hidden.get(t));
+			if (state == null) throw new IllegalArgumentException("Unknown label " + hidden.get(t) + " at " + t);
+			states[t] = state;
+		}
+		add(states, observations);
+	}
+	
+	/**
+	 * Counts a labeled sequence
+	 * @param states the index of the hidden state of each step
+	 * @param observations the observed state of each step
+	 * @throws IllegalArgumentException on mismatched lengths or states out of range
+	 */
+	public void add(int[] states, int[] observations) {
+		if (states.length != observations.length) {
+			throw new IllegalArgumentException(states.length + " labels for " + observations.length + " observations");
+		}
+		for (int t = 0; t < states.length; t++) {
+			if (states[t] < 0 || states[t] >= n) throw new IllegalArgumentException("State " + states[t] + " out of range at " + t);
+			if (observations[t] < 0 || observations[t] >= m) throw new IllegalArgumentException("Observation " + observations[t] + " out of range at " + t);
+		}
+		if (states.length == 0) return;
+		
+		Counts c = idleCounts.poll();
+		if (c == null) {
+			c = new Counts();
+			allCounts.add(c);
+		}
+		c.initial[states[0]]++;
+		c.emission[states[0] * m + observations[0]]++;
+		for (int t = 1; t < states.length; t++) {
+			c.transition[states[t - 1] * n + states[t]]++;
+			c.emission[states[t] * m + observations[t]]++;
+		}
+		c.sequences++;
+		c.clusters += states.length;
+		idleCounts.add(c);
+	}
+	
+	/**
+	 * Sums every set of counts
+	 * @return the total counts
+	 */
+	private Counts total() {
+		Counts total = new Counts();
+		for (Counts c : allCounts) {
+			for (int i = 0; i < total.initial.length; i++) total.initial[i] += c.initial[i];
+			for (int i = 0; i < total.transition.length; i++) total.transition[i] += c.transition[i];
+			for (int i = 0; i < total.emission.length; i++) total.emission[i] += c.emission[i];
+			total.sequences += c.sequences;
+			total.clusters += c.clusters;
+		}
+		return total;
+	}
+	
+	/**
+	 * Normalizes the counts and writes them as comma separated CPTs, loadable with
+	 * {@link CPT#CPT(String)}. The emissions have one column per observation, load them with
+	 * {@link EmissionModel#of(CPT)}.
+	 * @param prefix the start of the file names, Initial, Transition and Emission get appended
+	 * @throws IOException
+	 */
+	public void write(String prefix) throws IOException {
+		Counts total = total();
+		toCPT(total.initial, 1, n, pseudoCount).write(new File(prefix + "Initial"));
+		toCPT(total.transition, n, n, pseudoCount).write(new File(prefix + "Transition"));
+		toCPT(total.emission, n, m, pseudoCount).write(new File(prefix + "Emission"));
+	}
+	
+	private static CPT toCPT(long[] counts, int numFromStates, int numToStates, double pseudoCount) {
+		CPT cpt = new CPT(numFromStates, numToStates);
+		for (int i = 0; i < numFromStates; i++) {
+			double sum = 0.0;
+			for (int j = 0; j < numToStates; j++) sum += counts[i * numToStates + j] + pseudoCount;
+			for (int j = 0; j < numToStates; j++) {
+				cpt.set(i, j, sum == 0.0 ? 1.0 / numToStates : (counts[i * numToStates + j] + pseudoCount) / sum);
+			}
+		}
+		return cpt;
+	}
+	
+	/**
+	 * @return how many sequences have been counted
+	 */
+	public long getSequences() {
+		long sequences = 0;
+		for (Counts c : allCounts) sequences += c.sequences;
+		return sequences;
+	}
+	
+	/**
+	 * @return how many labeled steps have been counted
+	 */
+	public long getClusters() {
+		long clusters = 0;
+		for (Counts c : allCounts) clusters += c.clusters;
+		return clusters;
+	}
+	
+	public List<String> getLabels() {
+		return labels;
+	}
+	
+	/**
+	 * One set of counts, used by one add at a time
+	 */
+	private final class Counts {
+		private final long[] initial = new long[n];
+		private final long[] transition = new long[n * n];	// [from * n + to]
+		private final long[] emission = new long[n * m];		// [state * m + observation]
+		private long sequences = 0;
+		private long clusters = 0;
+	}
+}
@@ -0,0 +1,79 @@
+package hmm;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Log10 emission vectors keyed by observation. Pitch class states only go up to 4096 and real
+ * music repeats the same few chords over and over, so each observation's vector is worked out the
+ * first time it's seen and then just looked up.
+ * 
+ * Safe to share between threads: emission models are read only, and a row computed twice by
+ * racing threads comes out the same either way.
+ * @author Alumina
+ */
+public final class EmissionCache {
+	private final EmissionModel emission;
+	private final int numStates;
+	private final int numObservations;
+	private final AtomicReferenceArray<double[]> rows;	// [observation][state], null until needed
+	
+	/**
+	 * @param emission the emission model to cache
+	 */
+	public EmissionCache(EmissionModel emission) {
+		this.emission = emission;
+		this.numStates = emission.getNumStates();
+		this.numObservations = emission.getNumObservations();
+		this.rows = new AtomicReferenceArray<>(numObservations);
+	}
+	
+	/**
+	 * Fills in every observation up front
+	 * @return this
+	 */
+	public EmissionCache fillAll() {
+		for (int o = 0; o < numObservations; o++) {
+			row(o);
+		}
+		return this;
+	}
+	
+	/**
+	 * Gets the log10 emission probability of an observation for every state
+	 * @param observation the observed state
+	 * @return the vector, indexed by hidden state. Don't modify it.
+	 */
+	public double[] row(int observation) {
+		if (observation < 0 || observation >= numObservations) {
+			throw new IllegalArgumentException("Observation " + observation + " out of range [0, " + numObservations + ")");
+		}
+		double[] row = rows.get(observation);
+		if (row == null) {
+			row = new double[numStates];
+			for (int j = 0; j < numStates; j++) {
+				row[j] = Math.log10(emission.get(j, observation));
+			}
+			rows.set(observation, row);
+		}
+		return row;
+	}
+	
+	/**
+	 * @return how many observations have been filled in
+	 */
+	public int size() {
+		int size = 0;
+		for (int o = 0; o < numObservations; o++) {
+			if (rows.get(o) != null) size++;
+		}
+		return size;
+	}
+	
+	public int getNumStates() {
+		return numStates;
+	}
+	
+	public int getNumObservations() {
+		return numObservations;
+	}
+}
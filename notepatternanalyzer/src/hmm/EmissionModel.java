@@ -0,0 +1,46 @@
+package hmm;
+
+/**
+ * Emission probabilities of an HMM, P(observation | hidden state). Implementations have to be
+ * safe to read from several threads once they're built.
+ * @author Alumina
+ */
+public interface EmissionModel {
+	
+	public int getNumStates();
+	
+	public int getNumObservations();
+	
+	/**
+	 * @param state the hidden state
+	 * @param observation the observed state
+	 * @return the normalized probability of seeing the observation in the state
+	 */
+	public double get(int state, int observation);
+	
+	/**
+	 * Uses a CPT with one column per observation as an emission model
+	 * @param emission the emissions, state by observation
+	 * @return the model
+	 */
+	public static EmissionModel of(final CPT emission) {
+		// Normalize now so reading never writes to the CPT
+		for (int j = 0; j < emission.getNumFromStates(); j++) {
+			emission.get(j, 0);
+		}
+		
+		return new EmissionModel() {
+			public int getNumStates() {
+				return emission.getNumFromStates();
+			}
+			
+			public int getNumObservations() {
+				return emission.getNumToStates();
+			}
+			
+			public double get(int state, int observation) {
+				return emission.get(state, observation);
+			}
+		};
+	}
+}
@@ -0,0 +1,190 @@
+package hmm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A whole HMM in one binary file, for loading without parsing text. The file is mapped and the
+ * probabilities are copied straight into primitive arrays.
+ * 
+ * Layout, big endian:
+ * <pre>
+ * 0   int    magic, "HMMB"
+ * 4   int    version
+ * 8   int    number of states n
+ * 12  int    emission kind, TABLE or SUBSET_SUM
+ * 16  int    emission columns c (observations for TABLE, base symbols for SUBSET_SUM)
+ * 20  int    length of the labels in bytes
+ * 24  long   CRC32 of everything after the header
+ * 32  double initial[n], normalized
+ *     double transition[n * n], normalized, [i * n + j] = P(j | i)
+ *     double emission[n * c], normalized for TABLE, raw base weights for SUBSET_SUM
+ *     byte   labels, UTF-8, one per line
+ * </pre>
+ * @author Alumina
+ */
+public final class ModelFile {
+	private static final int MAGIC = 0x484D4D42;
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+	
+	/** Emissions stored as a table with one column per observation */
+	public static final int TABLE = 0;
+	/** Emissions stored as the base weights of a {@link SubsetSumEmission} */
+	public static final int SUBSET_SUM = 1;
+	
+	private final double[] initial;
+	private final double[] transition;
+	private final EmissionModel emissions;
+	private final List<String> labels;
+	
+	private ModelFile(double[] initial, double[] transition, EmissionModel emissions, List<String> labels) {
+		this.initial = initial;
+		this.transition = transition;
+		this.emissions = emissions;
+		this.labels = labels;
+	}
+	
+	/**
+	 * Writes a model. A {@link SubsetSumEmission} is stored as its base weights, any other
+	 * emission model as a full table.
+	 * @param file the file to write
+	 * @param init the initial distribution, one row
+	 * @param trans the transitions, from state by to state
+	 * @param emit the emission model
+	 * @param labels the names of the states
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the sizes don't line up
+	 */
+	public static void write(File file, CPT init, CPT trans, EmissionModel emit, List<String> labels) throws IOException {
+		int n = labels.size();
+		if (n != init.getNumToStates() || n != trans.getNumFromStates() || n != trans.getNumToStates() || n != emit.getNumStates()) {
+			throw new IllegalArgumentException("invalid file size " + n + " " + init.getNumToStates() + " " + trans.getNumFromStates() + " " + trans.getNumToStates() + " " + emit.getNumStates());
+		}
+		int kind;
+		int columns;
+		double[] emission;
+		if (emit instanceof SubsetSumEmission) {
+			kind = SUBSET_SUM;
+			columns = ((SubsetSumEmission) emit).getNumSymbols();
+			emission = ((SubsetSumEmission) emit).getWeights();
+		} else {
+			kind = TABLE;
+			columns = emit.getNumObservations();
+			emission = new double[n * columns];
+			for (int i = 0; i < n; i++) {
+				for (int o = 0; o < columns; o++) emission[i * columns + o] = emit.get(i, o);
+			}
+		}
+		byte[] text = (String.join("\n", labels) + "\n").getBytes(StandardCharsets.UTF_8);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + 8 * (n + n * n + emission.length) + text.length);
+		buffer.position(HEADER);
+		for (int i = 0; i < n; i++) buffer.putDouble(init.get(0, i));
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) buffer.putDouble(trans.get(i, j));
+		}
+		for (double x : emission) buffer.putDouble(x);
+		buffer.put(text);
+		
+		buffer.position(HEADER);
+		CRC32 crc = new CRC32();
+		crc.update(buffer);
+		
+		buffer.clear();
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(kind).putInt(columns).putInt(text.length).putLong(crc.getValue());
+		buffer.clear();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Maps and checks a model file
+	 * @param file the file to read
+	 * @return the model
+	 * @throws IOException if the file can't be read, or isn't a valid model file. Any size that
+	 * doesn't line up is reported this way too, so a bad file never gets as far as the arrays.
+	 */
+	public static ModelFile read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER) throw new IOException(file + " is too short for a model file");
+			if (size > Integer.MAX_VALUE) throw new IOException(file + " is too big for a model file");
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			
+			if (buffer.getInt() != MAGIC) throw new IOException(file + " is not a model file");
+			int version = buffer.getInt();
+			if (version != VERSION) throw new IOException(file + " has unsupported version " + version);
+			int n = buffer.getInt();
+			int kind = buffer.getInt();
+			int columns = buffer.getInt();
+			int textLength = buffer.getInt();
+			long checksum = buffer.getLong();
+			if (n <= 0 || columns <= 0 || textLength < 0 || (kind != TABLE && kind != SUBSET_SUM)) {
+				throw new IOException(file + " has a bad header");
+			}
+			if (kind == SUBSET_SUM && columns > SubsetSumEmission.MAX_SYMBOLS) {
+				throw new IOException(file + " has " + columns + " base symbols, at most " + SubsetSumEmission.MAX_SYMBOLS + " fit");
+			}
+			long expected = HEADER + 8L * (n + (long) n * n + (long) n * columns) + textLength;
+			if (expected != size) throw new IOException(file + " is " + size + " bytes, expected " + expected);
+			
+			CRC32 crc = new CRC32();
+			crc.update(buffer);
+			if (crc.getValue() != checksum) throw new IOException(file + " failed its checksum");
+			
+			buffer.position(HEADER);
+			double[] initial = new double[n];
+			double[] transition = new double[n * n];
+			double[] emission = new double[n * columns];
+			ByteBuffer payload = buffer.slice();
+			payload.asDoubleBuffer().get(initial).get(transition).get(emission);
+			
+			byte[] text = new byte[textLength];
+			payload.position(8 * (initial.length + transition.length + emission.length));
+			payload.get(text);
+			List<String> labels = new ArrayList<>(Arrays.asList(new String(text, StandardCharsets.UTF_8).split("\n")));
+			if (labels.size() != n) throw new IOException(file + " has " + labels.size() + " labels for " + n + " states");
+			
+			EmissionModel emissions = kind == SUBSET_SUM
+					? new SubsetSumEmission(n, columns, emission)
+					: new TableEmission(n, columns, emission);
+			return new ModelFile(initial, transition, emissions, Collections.unmodifiableList(labels));
+		}
+	}
+	
+	/**
+	 * Logs the probabilities for decoding
+	 * @return the compiled model
+	 */
+	public CompiledHMM compile() {
+		return CompiledHMM.compile(initial, transition, emissions, labels);
+	}
+	
+	public EmissionModel getEmissions() {
+		return emissions;
+	}
+	
+	public List<String> getLabels() {
+		return labels;
+	}
+	
+	public int getNumStates() {
+		return labels.size();
+	}
+	
+	public int getNumObservations() {
+		return emissions.getNumObservations();
+	}
+}
@@ -0,0 +1,155 @@
+package hmm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed-lag Viterbi for observations that arrive one at a time, like live midi input. A label is
+ * committed as soon as every surviving path agrees on it, and at the latest once lag more
+ * observations have come in, in which case it's taken from the currently best path.
+ * 
+ * Each observation costs one O(n^2) Viterbi step plus tracing the survivors back, which stops
+ * as soon as they merge and never goes further than lag steps. Only the last lag rows of
+ * backpointers are kept, so memory is O(n * lag). With a lag at least as long as the stream the
+ * labels are the same as {@link CompiledHMM#viterbi(int[])}. Not thread safe.
+ * @author Alumina
+ */
+public final class OnlineDecoder {
+	private final CompiledHMM model;
+	private final int lag;
+	private final int n;
+	
+	private double[] liLast;
+	private double[] liCurr;
+	private final int[] argmaxes;
+	private final int[] survivors;
+	private final CompiledHMM.Backpointers phi;	// ring of lag rows, row t at (t % lag) * n
+	
+	private int t = -1;			// the latest observation
+	private int committed = -1;	// the latest committed observation
+	
+	/**
+	 * @param model the compiled model
+	 * @param lag the most observations a label can wait for before it gets committed
+	 */
+	public OnlineDecoder(CompiledHMM model, int lag) {
+		if (lag < 1) throw new IllegalArgumentException("Lag has to be at least 1: " + lag);
+		this.model = model;
+		this.lag = lag;
+		this.n = model.getNumStates();
+		this.liLast = new double[n];
+		this.liCurr = new double[n];
+		this.argmaxes = new int[n];
+		this.survivors = new int[n];
+		this.phi = new CompiledHMM.Backpointers(lag * n, n);
+	}
+	
+	/**
+	 * Takes the next observation
+	 * @param observation the observed cluster
+	 * @return the labels committed by this observation, in time order, often none
+	 */
+	public List<String> push(HMMObservable observation) {
+		return push(observation.getState());
+	}
+	
+	/**
+	 * Takes the next observation
+	 * @param observation the observed state
+	 * @return the labels committed by this observation, in time order, often none
+	 */
+	public List<String> push(int observation) {
+		if (t == -1) {
+			model.start(observation, liCurr);
+			t = 0;
+		} else {
+			double[] swap = liLast;
+			liLast = liCurr;
+			liCurr = swap;
+			model.step(liLast, observation, liCurr, argmaxes);
+			t++;
+			phi.set((t % lag) * n, argmaxes);
+		}
+		
+		List<String> labels = Collections.emptyList();
+		
+		// commit everything up to where the survivors merge
+		int merged = merge();
+		if (merged > committed) labels = commit(merged, survivors[0], labels);
+		
+		// commit the oldest label from the best path if it has waited long enough
+		if (t - committed > lag) labels = commit(committed + 1, trace(CompiledHMM.argmax(liCurr), committed + 1), labels);
+		return labels;
+	}
+	
+	/**
+	 * Ends the stream, committing everything left from the best path. The decoder can be used
+	 * for a new stream after.
+	 * @return the rest of the labels, in time order
+	 */
+	public List<String> flush() {
+		List<String> labels = Collections.emptyList();
+		if (t > committed) labels = commit(t, CompiledHMM.argmax(liCurr), labels);
+		t = -1;
+		committed = -1;
+		return labels;
+	}
+	
+	/**
+	 * Traces every state back until they all come from the same state
+	 * @return the latest uncommitted time all the survivors go through, or committed if they
+	 * don't merge yet. survivors[0] is the state they merge at.
+	 */
+	private int merge() {
+		if (n == 1) {
+			survivors[0] = 0;
+			return t;
+		}
+		for (int j = 0; j < n; j++) survivors[j] = j;
+		for (int s = t; s > committed + 1; s--) {
+			int row = (s % lag) * n;
+			boolean same = true;
+			for (int j = 0; j < n; j++) {
+				survivors[j] = phi.get(row + survivors[j]);
+				same &= survivors[j] == survivors[0];
+			}
+			if (same) return s - 1;
+		}
+		return committed;
+	}
+	
+	/**
+	 * Follows one path back
+	 * @param state the state at t
+	 * @param to the time to stop at
+	 * @return the state at time to
+	 */
+	private int trace(int state, int to) {
+		for (int s = t; s > to; s--) {
+			state = phi.get((s % lag) * n + state);
+		}
+		return state;
+	}
+	
+	/**
+	 * Commits the path from after the last committed time up to a time
+	 * @param to the last time to commit
+	 * @param state the state at time to
+	 * @param labels the labels committed so far this step
+	 * @return the labels with the new ones added
+	 */
+	private List<String> commit(int to, int state, List<String> labels) {
+		int[] path = new int[to - committed];
+		path[path.length - 1] = state;
+		for (int s = to; s > committed + 1; s--) {
+			state = phi.get((s % lag) * n + state);
+			path[s - committed - 2] = state;
+		}
+		committed = to;
+		
+		if (labels.isEmpty()) labels = new ArrayList<>(path.length);
+		labels.addAll(model.label(path));
+		return labels;
+	}
+}
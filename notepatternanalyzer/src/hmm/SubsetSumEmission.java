@@ -0,0 +1,116 @@
+package hmm;
+
+/**
+ * Emissions for observations that are sets of base symbols, like a 12 bit mask of pitch classes.
+ * An observation's weight is the sum of the base weights of its symbols, and the row is normalized
+ * the same way {@link CPT} does it. Works out the same numbers as {@link CPT#powerup()} but never
+ * builds the 2^k columns: the row min, max and total come straight from the k base weights, and
+ * each column is summed when asked for.
+ * 
+ * Immutable, so it can be shared between threads. Wrap it in an {@link EmissionCache} to memoize
+ * the columns that actually come up.
+ * @author Alumina
+ */
+public final class SubsetSumEmission implements EmissionModel {
+	/** The most base symbols there can be, so every set fits in an int observation */
+	static final int MAX_SYMBOLS = 30;
+	private static final double correctionOffsetRatio = 0.2;
+	
+	private final int numStates;
+	private final int numSymbols;
+	private final double[] weights;		// [state * numSymbols + k]
+	private final double[] corrections;	// added to every column of the row
+	private final double[] totals;		// what the row gets divided by
+	
+	/**
+	 * @param base the base weights, state by symbol (12 columns for pitch classes)
+	 */
+	public SubsetSumEmission(CPT base) {
+		this(base.getNumFromStates(), base.getNumToStates(), weights(base));
+	}
+	
+	/**
+	 * @param numStates the number of hidden states
+	 * @param numSymbols the number of base symbols
+	 * @param weights the base weights, [state * numSymbols + k]
+	 */
+	SubsetSumEmission(int numStates, int numSymbols, double[] weights) {
+		this.numStates = numStates;
+		this.numSymbols = numSymbols;
+		if (numSymbols > MAX_SYMBOLS) throw new IllegalArgumentException("Too many symbols for int observations: " + numSymbols);
+		if (weights.length != numStates * numSymbols) throw new IllegalArgumentException(weights.length + " weights for " + numStates + " by " + numSymbols);
+		this.weights = weights;
+		this.corrections = new double[numStates];
+		this.totals = new double[numStates];
+		
+		int numObservations = 1 << numSymbols;
+		for (int i = 0; i < numStates; i++) {
+			double min = 0.0, max = 0.0, sum = 0.0;
+			for (int k = 0; k < numSymbols; k++) {
+				double w = weights[i * numSymbols + k];
+				
+				// The smallest set takes every negative weight, the biggest every positive one,
+				// and each symbol is in half of all the sets
+				if (w < 0.0) min += w;
+				else max += w;
+				sum += w;
+			}
+			sum *= numObservations / 2;
+			
+			// Correct negatives the same way CPT does (note that this causes all elements to be nonzero)
+			double correction = 0.0;
+			if (min < 0.0 || min == 0.0 && sum == 0.0) {
+				correction = -min + (max - min) * correctionOffsetRatio;
+				sum += numObservations * correction;
+			}
+			corrections[i] = correction;
+			totals[i] = sum;
+		}
+	}
+	
+	/**
+	 * Copies out the raw weights of a CPT, row by row
+	 */
+	static double[] weights(CPT base) {
+		int rows = base.getNumFromStates();
+		int columns = base.getNumToStates();
+		double[] weights = new double[rows * columns];
+		for (int i = 0; i < rows; i++) {
+			for (int k = 0; k < columns; k++) {
+				weights[i * columns + k] = base.getRaw(i, k);
+			}
+		}
+		return weights;
+	}
+	
+	int getNumSymbols() {
+		return numSymbols;
+	}
+	
+	/**
+	 * @return the base weights, [state * numSymbols + k]. Don't modify them.
+	 */
+	double[] getWeights() {
+		return weights;
+	}
+	
+	@Override
+	public int getNumStates() {
+		return numStates;
+	}
+	
+	@Override
+	public int getNumObservations() {
+		return 1 << numSymbols;
+	}
+	
+	@Override
+	public double get(int state, int observation) {
+		int row = state * numSymbols;
+		double sum = 0.0;
+		for (int k = 0; k < numSymbols; k++) {
+			if ((observation & (1 << k)) != 0) sum += weights[row + k];
+		}
+		return (sum + corrections[state]) / totals[state];
+	}
+}
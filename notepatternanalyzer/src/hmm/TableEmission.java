@@ -0,0 +1,35 @@
+package hmm;
+
+/**
+ * Emissions stored as a full table of normalized probabilities, one column per observation
+ * @author Alumina
+ */
+final class TableEmission implements EmissionModel {
+	private final int numStates;
+	private final int numObservations;
+	private final double[] probabilities;	// [state * numObservations + observation]
+	
+	TableEmission(int numStates, int numObservations, double[] probabilities) {
+		if (probabilities.length != numStates * numObservations) {
+			throw new IllegalArgumentException(probabilities.length + " probabilities for " + numStates + " by " + numObservations);
+		}
+		this.numStates = numStates;
+		this.numObservations = numObservations;
+		this.probabilities = probabilities;
+	}
+	
+	@Override
+	public int getNumStates() {
+		return numStates;
+	}
+	
+	@Override
+	public int getNumObservations() {
+		return numObservations;
+	}
+	
+	@Override
+	public double get(int state, int observation) {
+		return probabilities[state * numObservations + observation];
+	}
+}
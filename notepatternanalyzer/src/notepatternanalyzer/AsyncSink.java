@@ -0,0 +1,114 @@
+package notepatternanalyzer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands lines to another sink on a writer thread, so printing doesn't hold up the analysis. The
+ * queue is bounded, so a producer that gets too far ahead waits instead of buffering the whole
+ * output in memory.
+ *
+ * A write that fails on the writer thread, with an IOException or anything unchecked, is thrown
+ * from the next println, flush or close.
+ * @author Alumina
+ */
+class AsyncSink implements OutputSink {
+
+	// Markers, compared by identity
+	private static final String FLUSH = new String("flush");
+	private static final String END = new String("end");
+
+	private final OutputSink sink;
+	private final BlockingQueue<String> queue;
+	private final Thread writer;
+	private volatile Throwable error;
+	private boolean closed = false;
+
+	/**
+	 * @param sink where the lines end up
+	 * @param capacity how many lines can be waiting before println blocks
+	 */
+	AsyncSink(OutputSink sink, int capacity) {
+		this.sink = sink;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.writer = new Thread(this::drain, "AsyncSink");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void drain() {
+		List<String> batch = new ArrayList<>();
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch);
+				for (String line : batch) {
+					if (line == END) return;
+					if (error != null) continue;	// keep draining so producers don't block
+
+					try {
+						if (line == FLUSH) sink.flush();
+						else sink.println(line);
+					} catch (Throwable e) {
+						error = e;	// the writer has to keep draining, or producers block forever
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void put(String line) throws IOException {
+		if (closed) throw new IllegalStateException("Sink is closed");
+		checkError();
+		try {
+			queue.put(line);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the output queue");
+		}
+	}
+
+	private void checkError() throws IOException {
+		if (error != null) throw new IOException("Output failed", error);
+	}
+
+	@Override
+	public void println(String line) throws IOException {
+		put(line);
+	}
+
+	/**
+	 * Asks the writer thread to flush once it gets through the lines before this. Doesn't wait.
+	 */
+	@Override
+	public void flush() throws IOException {
+		put(FLUSH);
+	}
+
+	/**
+	 * Waits for every queued line to be written, then closes the sink. The sink is closed even
+	 * if a write failed, and the failure is thrown afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			queue.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the output to finish");
+		} finally {
+			sink.close();
+		}
+		checkError();
+	}
+}
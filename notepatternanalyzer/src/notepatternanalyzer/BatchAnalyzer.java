@@ -0,0 +1,228 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import hmm.CompiledHMM;
+
+/**
+ * Analyzes a whole corpus in one run, so the JVM starts and the model loads once instead of once
+ * per file. Files go through a {@link Pipeline}: parse, cluster the tracks, merge them, decode
+ * the chords and render the analysis to its own file in the output directory, at the same path
+ * the input has under the directory the glob starts from. Every stage has its
+ * own threads and a bounded queue in front of it, so parsing and writing one file overlap with
+ * decoding the others, and a stage that falls behind holds the ones before it back instead of
+ * letting files pile up in memory.
+ *
+ * Usage: NoteAnalyzer [directory or glob] [output directory] [threads per stage]
+ *        NoteAnalyzer "data/input/*.txt" data/output 4
+ * @author Alumina
+ */
+class BatchAnalyzer {
+
+	private final CompiledHMM model;
+	private final Path inputDir;
+	private final File outputDir;
+	private Pipeline<Job> pipeline;
+
+	// Totals over every thread
+	private final LongAdder files = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder clusters = new LongAdder();
+
+	/**
+	 * A file on its way through the pipeline. Each stage fills in its result and lets go of what
+	 * it was given, so finished steps can be collected.
+	 */
+	private static final class Job {
+		private final File file;
+		private MidiData data;
+		private NoteSequence.Tracks tracks;
+		private NoteSequence sequence;
+		private List<String> chords;
+
+		private Job(File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * @param model the chord guessing model, shared by every file
+	 * @param inputDir the directory the inputs were found in, see {@link #baseDirectory(String)}
+	 * @param outputDir where the analysis of each file goes, under its path relative to inputDir
+	 */
+	BatchAnalyzer(CompiledHMM model, File inputDir, File outputDir) {
+		this.model = model;
+		this.inputDir = inputDir.toPath().toAbsolutePath().normalize();
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * Works out where the analysis of an input goes. Mirroring the input's path keeps files with
+	 * the same name in different directories apart.
+	 * @param input a file under the input directory
+	 * @return the output file
+	 */
+	File outputFor(File input) {
+		Path relative = inputDir.relativize(input.toPath().toAbsolutePath().normalize());
+		if (relative.startsWith("..")) throw new IllegalArgumentException(input + " is not under " + inputDir);
+		return outputDir.toPath().resolve(relative).toFile();
+	}
+
+	private void render(Job job) throws IOException {
+		try (OutputSink sink = new FileSink(outputFor(job.file), false)) {
+			new NoteAnalyzer(job.file, sink, OutputSink.NONE).analyze(job.sequence, job.chords);
+		}
+		clusters.add(job.sequence.size());
+		files.increment();
+	}
+
+	/**
+	 * Analyzes every file and waits for them all. A file that fails is reported and counted, and
+	 * the rest carry on.
+	 * @param inputs the midi files
+	 * @param threads how many files each stage works on at once
+	 * @return the wall clock time in nanoseconds
+	 */
+	long run(List<File> inputs, int threads) throws InterruptedException {
+		long start = System.nanoTime();
+		int capacity = threads * 2;
+		pipeline = new Pipeline<Job>((job, stage, e) -> {
+			failed.increment();
+			System.err.println(job.file + ": " + stage + " failed: " + e);
+		});
+		pipeline.addStage("parse", threads, capacity, job -> job.data = NoteSequence.read(job.file))
+				.addStage("cluster", threads, capacity, job -> {
+					job.tracks = NoteSequence.cluster(job.data, null);
+					job.data = null;
+				})
+				.addStage("merge", threads, capacity, job -> {
+					job.sequence = new NoteSequence(job.tracks);
+					job.tracks = null;
+				})
+				.addStage("decode", threads, capacity, job -> job.chords = model.label(model.viterbi(CompiledHMM.states(job.sequence))))
+				.addStage("render", threads, capacity, this::render)
+				.start();
+
+		try {
+			for (File file : inputs) pipeline.submit(new Job(file));
+		} finally {
+			pipeline.finish();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Wait is how long files sat in front of a stage, busy how long the stage took on them, both
+	 * averaged per file. Peak is the most files that were waiting for the stage at once.
+	 * @param nanos the wall clock time of the run
+	 * @param threads the number of threads per stage
+	 * @return files and clusters per second, and the stats of each stage
+	 */
+	String summary(long nanos, int threads) {
+		double seconds = Math.max(1, nanos) / 1e9;	// an empty run can finish within the clock's resolution
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Analyzed %d files (%d failed), %d clusters in %.1f ms on %d threads per stage%n",
+				files.sum(), failed.sum(), clusters.sum(), nanos / 1e6, threads));
+		sb.append(String.format("%.1f files/s, %.0f clusters/s", files.sum() / seconds, clusters.sum() / seconds));
+		if (pipeline != null) sb.append(String.format("%n")).append(pipeline);
+		return sb.toString();
+	}
+
+	/**
+	 * Finds the files to analyze
+	 * @param pattern a directory, for every file directly in it, or a glob like data/input/*.txt
+	 *        or archive/**.mid
+	 * @return the files, sorted
+	 * @throws IOException
+	 */
+	static List<File> findFiles(String pattern) throws IOException {
+		File dir = new File(pattern);
+		if (dir.isDirectory()) {
+			File[] files = dir.listFiles(File::isFile);
+			if (files == null) throw new IOException("Couldn't list " + dir);
+			Arrays.sort(files);
+			return Arrays.asList(files);
+		}
+
+		// Walk from the deepest directory without wildcards, no deeper than the pattern goes
+		String[] parts = pattern.split("[/\\\\]");
+		int fixed = globStart(parts);
+		String base = String.join("/", Arrays.copyOf(parts, fixed));
+		int depth = pattern.contains("**") ? Integer.MAX_VALUE : parts.length - fixed;
+		Path root = Paths.get(base.isEmpty() ? "." : base);
+		if (!Files.isDirectory(root)) throw new IOException(pattern + " is not a directory or a glob");
+
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		try (Stream<Path> paths = Files.walk(root, depth)) {
+			return paths
+					.filter(Files::isRegularFile)
+					.filter(p -> matcher.matches(base.isEmpty() ? root.relativize(p) : p))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * The directory {@link #findFiles(String)} searches from
+	 * @param pattern a directory or a glob
+	 * @return the directory itself, or the deepest directory in the glob without wildcards
+	 */
+	static File baseDirectory(String pattern) {
+		File dir = new File(pattern);
+		if (dir.isDirectory()) return dir;
+		String[] parts = pattern.split("[/\\\\]");
+		String base = String.join("/", Arrays.copyOf(parts, globStart(parts)));
+		return new File(base.isEmpty() ? "." : base);
+	}
+
+	/**
+	 * @return the number of path parts before the first one with a wildcard, leaving at least
+	 *         the last part for the file name
+	 */
+	private static int globStart(String[] parts) {
+		int fixed = 0;
+		while (fixed < parts.length - 1 && !isGlob(parts[fixed])) fixed++;
+		return fixed;
+	}
+
+	private static boolean isGlob(String part) {
+		return part.indexOf('*') >= 0 || part.indexOf('?') >= 0 || part.indexOf('[') >= 0 || part.indexOf('{') >= 0;
+	}
+
+	private static void sop(Object x) {
+		System.out.println(x);
+	}
+
+	public static void main(String[] args) {
+		String pattern = args.length > 0 ? args[0] : "data/input";
+		File outputDir = new File(args.length > 1 ? args[1] : "data/output");
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		try (Config config = Config.load(Config.DEFAULT_FILE)) {
+			List<File> inputs = findFiles(pattern);
+			long start = System.nanoTime();
+			BatchAnalyzer batch = new BatchAnalyzer(NoteAnalyzer.loadModel(config), baseDirectory(pattern), outputDir);
+			sop(String.format("Loaded the model in %.1f ms, analyzing %d files", (System.nanoTime() - start) / 1e6, inputs.size()));
+
+			long nanos = batch.run(inputs, threads);
+			sop(batch.summary(nanos, threads));
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hmm.BatchDecoder;
+import hmm.CPT;
+import hmm.CompiledHMM;
+import hmm.HMM;
+import hmm.ModelFile;
+import hmm.SubsetSumEmission;
+
+/**
+ * Rough timing harness for the slow parts of the analyzer. Not a replacement for a proper
+ * profiler, but good enough to compare two implementations on the sample files.
+ *
+ * Usage: Benchmark parse [directory]
+ *        Benchmark track [file]
+ *        Benchmark decode [directory]
+ *        Benchmark beam [directory]
+ *        Benchmark batch [directory]
+ *        Benchmark load [model prefix] [binary model]
+ *        Benchmark render [directory]
+ * @author Alumina
+ */
+class Benchmark {
+
+	private static final int WARMUP = 200;
+	private static final int ITERATIONS = 200;
+
+	private static void parse(File[] files) throws IOException {
+		sop(String.format("%-30s %10s %12s %12s %8s", "file", "bytes", "reader ms", "mapped ms", "speedup"));
+		long totalBytes = 0;
+		double totalReader = 0, totalMapped = 0;
+		for (File file : files) {
+
+			// Make sure both parsers agree before timing them
+			MidiData expected = MidiTextParser.parse(file);
+			MidiData actual = MappedMidiTextParser.parse(file);
+			if (countEvents(expected) != countEvents(actual)) {
+				sop(file.getName() + ": parsers disagree (" + countEvents(expected) + " vs " + countEvents(actual) + " events)");
+			}
+
+			for (int i = 0; i < WARMUP; i++) {
+				MidiTextParser.parse(file);
+				MappedMidiTextParser.parse(file);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) MidiTextParser.parse(file);
+			double reader = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) MappedMidiTextParser.parse(file);
+			double mapped = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+			sop(String.format("%-30s %10d %12.3f %12.3f %7.2fx", file.getName(), file.length(), reader, mapped, reader / mapped));
+			totalBytes += file.length();
+			totalReader += reader;
+			totalMapped += mapped;
+		}
+		sop(String.format("%-30s %10d %12.3f %12.3f %7.2fx", "total", totalBytes, totalReader, totalMapped, totalReader / totalMapped));
+		sop(String.format("throughput: reader %.1f MB/s, mapped %.1f MB/s", totalBytes / totalReader / 1e3, totalBytes / totalMapped / 1e3));
+	}
+
+	/**
+	 * Measures how much garbage building the tracks of a file makes. Parsing is done once up
+	 * front so only NoteTrack construction (and the merge) is measured.
+	 */
+	private static void track(File file) throws IOException {
+		java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			sop("Allocation counting isn't supported on this JVM");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long thread = Thread.currentThread().getId();
+
+		MidiData data = NoteSequence.read(file);
+		int clusters = new NoteSequence(data).size();
+		for (int i = 0; i < WARMUP; i++) new NoteSequence(data);
+
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) new NoteSequence(data);
+		double ms = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+		bytes = (threads.getThreadAllocatedBytes(thread) - bytes) / ITERATIONS;
+
+		sop(file.getName() + ": " + countEvents(data) + " events, " + clusters + " clusters");
+		sop(String.format("%.3f ms and %d bytes allocated per build (%.1f bytes per event)", ms, bytes, (double) bytes / countEvents(data)));
+	}
+
+	/**
+	 * Times Viterbi over the clusters of each file. The model is compiled once and the states
+	 * pulled out up front, so only decoding is measured.
+	 */
+	private static void decode(File[] files) throws IOException {
+		CompiledHMM model = loadModel();
+		sop(String.format("%-30s %10s %12s %14s", "file", "clusters", "ms", "clusters/s"));
+		long totalClusters = 0;
+		double totalMs = 0;
+		for (File file : files) {
+			int[] states = CompiledHMM.states(new NoteSequence(file));
+			if (states.length == 0) continue;
+
+			for (int i = 0; i < WARMUP; i++) model.viterbi(states);
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) model.viterbi(states);
+			double ms = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+			sop(String.format("%-30s %10d %12.3f %14.0f", file.getName(), states.length, ms, states.length / ms * 1e3));
+			totalClusters += states.length;
+			totalMs += ms;
+		}
+		sop(String.format("%-30s %10d %12.3f %14.0f", "total", totalClusters, totalMs, totalClusters / totalMs * 1e3));
+	}
+
+	/**
+	 * Compares the beam decoder against exact Viterbi over a sweep of widths and thresholds,
+	 * counting the clusters and files where the labels disagree
+	 */
+	private static void beam(File[] files) throws IOException {
+		CompiledHMM model = loadModel();
+		List<int[]> sequences = new ArrayList<>();
+		List<int[]> exact = new ArrayList<>();
+		for (File file : files) {
+			int[] states = CompiledHMM.states(new NoteSequence(file));
+			if (states.length == 0) continue;
+			sequences.add(states);
+			exact.add(model.viterbi(states));
+		}
+
+		double exactMs = time(() -> {
+			for (int[] states : sequences) model.viterbi(states);
+		});
+		sop(String.format("exact: %.3f ms for %d files", exactMs, sequences.size()));
+		sop(String.format("%6s %10s %12s %10s %10s %8s", "width", "threshold", "clusters", "wrong", "files", "ms"));
+
+		double[] thresholds = { Double.POSITIVE_INFINITY, 4, 2, 1 };
+		for (int width = 1; width <= model.getNumStates(); width++) {
+			for (double threshold : thresholds) {
+				final int w = width;
+				int clusters = 0, wrong = 0, wrongFiles = 0;
+				for (int f = 0; f < sequences.size(); f++) {
+					int[] path = model.viterbiBeam(sequences.get(f), w, threshold);
+					int[] expected = exact.get(f);
+					int diff = 0;
+					for (int t = 0; t < path.length; t++) {
+						if (path[t] != expected[t]) diff++;
+					}
+					clusters += path.length;
+					wrong += diff;
+					if (diff > 0) wrongFiles++;
+				}
+				double ms = time(() -> {
+					for (int[] states : sequences) model.viterbiBeam(states, w, threshold);
+				});
+				sop(String.format("%6d %10.1f %12d %9.2f%% %10d %8.3f", width, threshold, clusters, 100.0 * wrong / clusters, wrongFiles, ms));
+			}
+		}
+	}
+
+	/**
+	 * Decodes the files over and over as one big batch, sequentially and then on more threads
+	 */
+	private static void batch(File[] files) throws IOException {
+		CompiledHMM model = loadModel();
+		List<NoteSequence> batch = new ArrayList<>();
+		for (File file : files) {
+			NoteSequence sequence = new NoteSequence(file);
+			if (sequence.size() > 0) batch.add(sequence);
+		}
+		List<NoteSequence> copies = new ArrayList<>();
+		for (int i = 0; i < 50; i++) copies.addAll(batch);
+
+		// Make sure the batch agrees with decoding one at a time
+		BatchDecoder decoder = new BatchDecoder(model);
+		List<List<String>> paths = decoder.decode(batch, 1).getPaths();
+		for (int i = 0; i < batch.size(); i++) {
+			if (!paths.get(i).equals(model.label(model.viterbi(CompiledHMM.states(batch.get(i)))))) {
+				sop("batch disagrees on sequence " + i);
+			}
+		}
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= processors; threads *= 2) {
+			for (int i = 0; i < WARMUP / 20; i++) decoder.decode(copies, threads);
+			sop(threads + " threads: " + decoder.decode(copies, threads));
+		}
+	}
+
+	/**
+	 * Times loading a model from the text CPTs against the binary model file, and makes sure
+	 * both decode the sample files the same
+	 */
+	private static void load(String prefix, File binary) throws IOException {
+		CompiledHMM text = loadModel(prefix);
+		CompiledHMM mapped = ModelFile.read(binary).compile();
+		for (File file : inputFiles(new String[0])) {
+			int[] states = CompiledHMM.states(new NoteSequence(file));
+			if (!Arrays.equals(text.viterbi(states), mapped.viterbi(states))) sop(file.getName() + ": models disagree");
+		}
+
+		double textMs = time(() -> loadModel(prefix));
+		double mappedMs = time(() -> {
+			try {
+				ModelFile.read(binary).compile();
+			} catch (IOException e) {
+				throw new java.io.UncheckedIOException(e);
+			}
+		});
+		sop(String.format("text %.3f ms, binary %.3f ms (%d bytes), %.1fx", textMs, mappedMs, binary.length(), textMs / mappedMs));
+	}
+
+	/**
+	 * Renders every cluster of the files, once through toString and once into a reused
+	 * StringBuilder, and measures the time and garbage per cluster of each
+	 */
+	private static void render(File[] files) throws IOException {
+		java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			sop("Allocation counting isn't supported on this JVM");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long thread = Thread.currentThread().getId();
+
+		List<NoteSequence> sequences = new ArrayList<>();
+		int clusters = 0;
+		for (File file : files) {
+			NoteSequence sequence = new NoteSequence(file);
+			sequences.add(sequence);
+			clusters += sequence.size();
+		}
+
+		StringBuilder line = new StringBuilder(128);
+		long[] chars = new long[1];
+		Runnable strings = () -> {
+			for (NoteSequence sequence : sequences) {
+				for (NoteCluster cluster : sequence) chars[0] += cluster.toString().length();
+			}
+		};
+		Runnable builder = () -> {
+			for (NoteSequence sequence : sequences) {
+				for (NoteCluster cluster : sequence) {
+					line.setLength(0);
+					chars[0] += ClusterRenderer.appendCluster(line, cluster).length();
+				}
+			}
+		};
+
+		sop(String.format("%-10s %10s %14s %16s", "", "ms", "clusters/s", "bytes/cluster"));
+		String[] names = { "toString", "builder" };
+		Runnable[] tasks = { strings, builder };
+		for (int i = 0; i < tasks.length; i++) {
+			Runnable task = tasks[i];
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			double ms = time(task);
+			bytes = (threads.getThreadAllocatedBytes(thread) - bytes) / (WARMUP + ITERATIONS);
+			sop(String.format("%-10s %10.3f %14.0f %16.1f", names[i], ms, clusters / ms * 1e3, (double) bytes / clusters));
+		}
+	}
+
+	/**
+	 * Average time of a task after warming it up
+	 * @return milliseconds per run
+	 */
+	private static double time(Runnable task) {
+		for (int i = 0; i < WARMUP; i++) task.run();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) task.run();
+		return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+	}
+
+	private static CompiledHMM loadModel() {
+		return loadModel("data/cpt/alumina");
+	}
+
+	private static CompiledHMM loadModel(String prefix) {
+		List<String> labels = HMM.readLabels(prefix + "Labels1");
+		return CompiledHMM.compile(
+				new CPT(prefix + "Initial1"),
+				new CPT(prefix + "Transition1"),
+				new SubsetSumEmission(new CPT(prefix + "Emission1")),
+				labels);
+	}
+
+	private static int countEvents(MidiData data) {
+		int count = data.getConductor().size();
+		for (MidiEvents track : data.getTracks()) count += track.size();
+		return count;
+	}
+
+	private static File[] inputFiles(String[] args) {
+		File dir = new File(args.length > 1 ? args[1] : "data/input");
+		File[] files = dir.listFiles();
+		if (files == null) throw new IllegalArgumentException(dir + " is not a directory");
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static void sop(Object x) {
+		System.out.println(x);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 ? args[0] : "parse";
+		switch (mode) {
+		case "parse":
+			parse(inputFiles(args));
+			break;
+		case "track":
+			track(new File(args.length > 1 ? args[1] : "data/input/asphyxiaNavaroneBoo.txt"));
+			break;
+		case "decode":
+			decode(inputFiles(args));
+			break;
+		case "beam":
+			beam(inputFiles(args));
+			break;
+		case "batch":
+			batch(inputFiles(args));
+			break;
+		case "load":
+			load(args.length > 1 ? args[1] : "data/cpt/alumina", new File(args.length > 2 ? args[2] : "data/cpt/alumina1.hmm"));
+			break;
+		case "render":
+			render(inputFiles(args));
+			break;
+		default:
+			sop("Usage: Benchmark parse [directory] | track [file] | decode [directory] | beam [directory] | batch [directory] | load [model prefix] [binary model] | render [directory]");
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package notepatternanalyzer;
+
+/**
+ * Writes clusters and the lines around them into a StringBuilder the caller keeps reusing, so
+ * printing a whole piece makes next to no garbage. Note names come straight out of the spelling
+ * table in {@link Note} and numbers are appended without going through Strings.
+ * @author Alumina
+ */
+final class ClusterRenderer {
+
+	private ClusterRenderer() {
+	}
+
+	/**
+	 * Appends a cluster the way {@link NoteCluster#toString()} shows it, the timestamp and
+	 * duration and then the held notes grouped by track, with the newly pressed ones in stars
+	 * @param out where to write
+	 * @param cluster the cluster
+	 * @return out
+	 */
+	static StringBuilder appendCluster(StringBuilder out, NoteCluster cluster) {
+		int timestamp = cluster.getTimeStamp();
+		out.append(timestamp).append('~');
+		appendFraction(out, cluster.getDuration(), cluster.getPpq() * 4).append(": ");
+
+		int track = -1;
+		for (int i = 0; i < cluster.numNotes(); i++) {
+			HeldNote n = cluster.getNote(i);
+			if (n.getTrack() != track) {
+				if (track != -1) out.append("] ");
+				track = n.getTrack();
+				out.append('(').append(track).append(")[ ");
+			}
+			if (n.getStartTime() == timestamp) {
+				out.append('*');
+				appendNote(out, n).append("* ");
+			} else {
+				appendNote(out, n).append(' ');
+			}
+		}
+		if (track != -1) out.append(']');
+		return out;
+	}
+
+	/**
+	 * Appends a note the way {@link HeldNote#toString()} shows it, like F_SHARP_4
+	 * @param out where to write
+	 * @param note the note
+	 * @return out
+	 */
+	static StringBuilder appendNote(StringBuilder out, HeldNote note) {
+		return out.append(note.getNote()).append('_').append(note.getOctave());
+	}
+
+	/**
+	 * Appends a fraction in lowest terms, like 3/8
+	 * @param out where to write
+	 * @param a the numerator
+	 * @param b the denominator
+	 * @return out
+	 */
+	static StringBuilder appendFraction(StringBuilder out, long a, long b) {
+		long gcd = gcd(a, b);
+		return out.append(a / gcd).append('/').append(b / gcd);
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long r = a % b;
+			a = b;
+			b = r;
+		}
+		return a;
+	}
+
+	/**
+	 * @param out where to write
+	 * @param measure the number of the measure
+	 * @return out
+	 */
+	static StringBuilder appendMeasure(StringBuilder out, int measure) {
+		return out.append("Measure ").append(measure);
+	}
+
+	/**
+	 * Pads a line with spaces
+	 * @param out where to write
+	 * @param lineStart where the line starts in out
+	 * @param column how long the line should be, lines already that long are left alone
+	 * @return out
+	 */
+	static StringBuilder padTo(StringBuilder out, int lineStart, int column) {
+		for (int i = out.length() - lineStart; i < column; i++) out.append(' ');
+		return out;
+	}
+}
@@ -0,0 +1,328 @@
+package notepatternanalyzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar storage for the clusters of a track. Every cluster is a row across parallel primitive
+ * arrays, and the notes of a cluster are a run of offsets into one shared note index array that
+ * points into the track's note pool. {@link NoteCluster}s are just views over a row.
+ *
+ * Each row also keeps its held and newly pressed keys as 128 bit masks (bit n is midi note n, low
+ * and high halves in separate longs) and the pitch classes of its held notes as a 12 bit mask,
+ * so the common queries don't have to touch the notes at all.
+ * @author Alumina
+ */
+class ClusterStore implements Iterable<NoteCluster> {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Cluster columns
+	private int[] timestamps = new int[INITIAL_CAPACITY];
+	private int[] durations = new int[INITIAL_CAPACITY];
+	private int[] segments = new int[INITIAL_CAPACITY];		// tempo, key and meter live in the segment table
+	private int[] heldStart = new int[INITIAL_CAPACITY];		// held notes are [heldStart, releasedStart)
+	private int[] releasedStart = new int[INITIAL_CAPACITY];	// released notes run until the next heldStart
+	private long[] heldLow = new long[INITIAL_CAPACITY];
+	private long[] heldHigh = new long[INITIAL_CAPACITY];
+	private long[] pressedLow = new long[INITIAL_CAPACITY];
+	private long[] pressedHigh = new long[INITIAL_CAPACITY];
+	private short[] pitchClasses = new short[INITIAL_CAPACITY];
+	private int size = 0;
+
+	// Shared note index, offsets into the pool
+	private int[] noteIndex = new int[INITIAL_CAPACITY * 4];
+	private int noteCount = 0;
+
+	// Every note the track ever played
+	private HeldNote[] pool = new HeldNote[INITIAL_CAPACITY];
+	private int poolSize = 0;
+
+	private final SegmentTable segmentTable;
+
+	/**
+	 * @param segmentTable the metadata of the sequence the track belongs to
+	 */
+	ClusterStore(SegmentTable segmentTable) {
+		this.segmentTable = segmentTable;
+	}
+
+	int getPpq() {
+		return segmentTable.getPpq();
+	}
+
+	/**
+	 * Puts a note in the pool so clusters can refer to it
+	 * @param note the new note
+	 * @return the index of the note in the pool
+	 */
+	int register(HeldNote note) {
+		if (poolSize == pool.length) pool = Arrays.copyOf(pool, poolSize * 2);
+		pool[poolSize] = note;
+		return poolSize++;
+	}
+
+	/**
+	 * Gets a note from the pool
+	 * @param note the index of the note in the pool
+	 * @return the note
+	 */
+	HeldNote getPooled(int note) {
+		return pool[note];
+	}
+
+	/**
+	 * Adds a cluster for the given timestamp
+	 * @param prevNotes the notes sounding just before the timestamp
+	 * @param pressedNotes the notes pressed since the last cluster
+	 * @param timestamp
+	 * @return the index of the cluster
+	 */
+	int add(NoteList prevNotes, NoteList pressedNotes, int timestamp) {
+		if (size == timestamps.length) grow();
+
+		timestamps[size] = timestamp;
+		durations[size] = 0;
+		segments[size] = segmentTable.segmentAt(timestamp);
+
+		// get the held notes from previous notes not released at timestamp
+		heldStart[size] = noteCount;
+		for (int i = 0; i < prevNotes.size(); i++) {
+			if (pool[prevNotes.get(i)].getEndTime() != timestamp) addNote(prevNotes.get(i));
+		}
+
+		// add all the notes to get the new notes
+		for (int i = 0; i < pressedNotes.size(); i++) {
+			if (pool[pressedNotes.get(i)].getStartTime() == timestamp) addNote(pressedNotes.get(i));
+		}
+		sortNotes(heldStart[size], noteCount);
+		setMasks(size, timestamp);
+
+		// do opposite of first loop to get released notes
+		releasedStart[size] = noteCount;
+		for (int i = 0; i < prevNotes.size(); i++) {
+			if (pool[prevNotes.get(i)].getEndTime() == timestamp) addNote(prevNotes.get(i));
+		}
+		sortNotes(releasedStart[size], noteCount);
+
+		return size++;
+	}
+
+	private void addNote(int note) {
+		if (noteCount == noteIndex.length) noteIndex = Arrays.copyOf(noteIndex, noteCount * 2);
+		noteIndex[noteCount++] = note;
+	}
+
+	/**
+	 * Builds the key and pitch class masks of a row from its held notes
+	 */
+	private void setMasks(int i, int timestamp) {
+		long held0 = 0, held1 = 0, pressed0 = 0, pressed1 = 0;
+		int classes = 0;
+		for (int j = heldStart[i]; j < noteCount; j++) {
+			HeldNote note = pool[noteIndex[j]];
+			int value = note.getRawValue();
+			long bit = 1L << value;	// shifts are mod 64, so this is the bit in either half
+			boolean pressed = note.getStartTime() == timestamp;
+			if (value < 64) {
+				held0 |= bit;
+				if (pressed) pressed0 |= bit;
+			} else {
+				held1 |= bit;
+				if (pressed) pressed1 |= bit;
+			}
+			classes |= 1 << (value % 12);
+		}
+		heldLow[i] = held0;
+		heldHigh[i] = held1;
+		pressedLow[i] = pressed0;
+		pressedHigh[i] = pressed1;
+		pitchClasses[i] = (short) classes;
+	}
+
+	/**
+	 * Stable sort of a run of notes by raw value, the same order Collections.sort gave
+	 */
+	private void sortNotes(int from, int to) {
+		for (int i = from + 1; i < to; i++) {
+			int note = noteIndex[i];
+			int value = pool[note].getRawValue();
+			int j = i - 1;
+			while (j >= from && pool[noteIndex[j]].getRawValue() > value) {
+				noteIndex[j + 1] = noteIndex[j];
+				j--;
+			}
+			noteIndex[j + 1] = note;
+		}
+	}
+
+	private void grow() {
+		int capacity = timestamps.length * 2;
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		segments = Arrays.copyOf(segments, capacity);
+		heldStart = Arrays.copyOf(heldStart, capacity);
+		releasedStart = Arrays.copyOf(releasedStart, capacity);
+		heldLow = Arrays.copyOf(heldLow, capacity);
+		heldHigh = Arrays.copyOf(heldHigh, capacity);
+		pressedLow = Arrays.copyOf(pressedLow, capacity);
+		pressedHigh = Arrays.copyOf(pressedHigh, capacity);
+		pitchClasses = Arrays.copyOf(pitchClasses, capacity);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Random access to a cluster
+	 * @param i the index of the cluster
+	 * @return a view of the cluster
+	 */
+	NoteCluster get(int i) {
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Cluster " + i + " of " + size);
+		return new NoteCluster(this, i);
+	}
+
+	int getTimeStamp(int i) {
+		return timestamps[i];
+	}
+
+	int getDuration(int i) {
+		return durations[i];
+	}
+
+	void setDuration(int i, int duration) {
+		durations[i] = duration;
+	}
+
+	int getSegment(int i) {
+		return segments[i];
+	}
+
+	/**
+	 * @param i the index of the cluster
+	 * @return the tempo in beats per minute
+	 */
+	int getTempo(int i) {
+		return segmentTable.getBpm(segments[i]);
+	}
+
+	KeySignature getKeySignature(int i) {
+		return segmentTable.getKeySignature(segments[i]);
+	}
+
+	int getBpb(int i) {
+		return segmentTable.getBpb(segments[i]);
+	}
+
+	int getBeatNote(int i) {
+		return segmentTable.getBeatNote(segments[i]);
+	}
+
+	/**
+	 * Checks the held key mask of a cluster
+	 * @param i the index of the cluster
+	 * @param value the midi value of the key
+	 * @return true if the key is held
+	 */
+	boolean isHeld(int i, int value) {
+		if (value < 0 || value > 127) return false;
+		return ((value < 64 ? heldLow[i] : heldHigh[i]) & (1L << value)) != 0;
+	}
+
+	/**
+	 * Checks the pressed key mask of a cluster
+	 * @param i the index of the cluster
+	 * @param value the midi value of the key
+	 * @return true if the key was pressed at the cluster's timestamp
+	 */
+	boolean isPressed(int i, int value) {
+		if (value < 0 || value > 127) return false;
+		return ((value < 64 ? pressedLow[i] : pressedHigh[i]) & (1L << value)) != 0;
+	}
+
+	/**
+	 * Finds where a held key sits in the note index. Held notes are sorted by value, so unless a
+	 * key is held twice the position is the number of held keys below it.
+	 * @param i the index of the cluster
+	 * @param value the midi value of the key
+	 * @return the offset of the note, the last one if the key is held twice, or -1 if not held
+	 */
+	int findHeld(int i, int value) {
+		if (!isHeld(i, value)) return -1;
+		int held = Long.bitCount(heldLow[i]) + Long.bitCount(heldHigh[i]);
+		if (held == releasedStart[i] - heldStart[i]) {
+			int below = value < 64
+					? Long.bitCount(heldLow[i] & ((1L << value) - 1))
+					: Long.bitCount(heldLow[i]) + Long.bitCount(heldHigh[i] & ((1L << value) - 1));
+			return heldStart[i] + below;
+		}
+
+		// A key held twice, fall back to a scan
+		int found = -1;
+		for (int j = heldStart[i]; j < releasedStart[i]; j++) {
+			if (pool[noteIndex[j]].getRawValue() == value) found = j;
+		}
+		return found;
+	}
+
+	/**
+	 * The pitch classes of a cluster's held notes, bit n set for value % 12 == n
+	 */
+	int getPitchClasses(int i) {
+		return pitchClasses[i];
+	}
+
+	/**
+	 * The offsets of a cluster's notes in the note index
+	 */
+	int heldStart(int i) {
+		return heldStart[i];
+	}
+
+	int releasedStart(int i) {
+		return releasedStart[i];
+	}
+
+	int releasedEnd(int i) {
+		return i + 1 < size ? heldStart[i + 1] : noteCount;
+	}
+
+	/**
+	 * Looks up a note through the note index
+	 * @param offset the offset in the note index
+	 * @return the note
+	 */
+	HeldNote getNote(int offset) {
+		return pool[noteIndex[offset]];
+	}
+
+	/**
+	 * Copies a run of notes into a list
+	 */
+	List<HeldNote> getNotes(int from, int to) {
+		List<HeldNote> notes = new ArrayList<>(to - from);
+		for (int i = from; i < to; i++) notes.add(pool[noteIndex[i]]);
+		return notes;
+	}
+
+	@Override
+	public Iterator<NoteCluster> iterator() {
+		return new Iterator<NoteCluster>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			public NoteCluster next() {
+				if (next >= size) throw new NoSuchElementException();
+				return new NoteCluster(ClusterStore.this, next++);
+			}
+		};
+	}
+}
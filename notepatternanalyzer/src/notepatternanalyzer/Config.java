@@ -0,0 +1,219 @@
+package notepatternanalyzer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The settings in data/config.properties. The file is read once into an immutable snapshot, so
+ * getting a setting is just a map lookup and never blocks or touches the disk. {@link #watch()}
+ * reloads the snapshot whenever the file changes, swapping the whole thing in at once so readers
+ * never see half of an update.
+ *
+ * {@link #set(String, String)} rewrites the file with every other key kept, through a temporary
+ * file that's moved over the old one. Run on its own, this prints the settings or changes one,
+ * and a watching NoteAnalyzer picks the change up.
+ *
+ * Usage: Config [key [value]]
+ *        Config printToFile true
+ * @author Alumina
+ */
+class Config implements Closeable {
+
+	static final File DEFAULT_FILE = new File("data/config.properties");
+	private static final String COMMENT = "Note Pattern Analyzer Properties";
+
+	private final Path path;
+	private volatile Map<String, String> snapshot;
+	private WatchService watcher;
+
+	private Config(Path path) throws IOException {
+		this.path = path.toAbsolutePath();
+		this.snapshot = read(this.path);
+	}
+
+	/**
+	 * Reads a config file. A file that doesn't exist yet is just empty.
+	 * @param file the properties file
+	 * @return the config
+	 * @throws IOException if the file exists but can't be read
+	 */
+	static Config load(File file) throws IOException {
+		return new Config(file.toPath());
+	}
+
+	private static Map<String, String> read(Path path) throws IOException {
+		return toMap(readProperties(path));
+	}
+
+	private static Map<String, String> toMap(Properties props) {
+		Map<String, String> map = new HashMap<>();
+		for (String key : props.stringPropertyNames()) map.put(key, props.getProperty(key));
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static Properties readProperties(Path path) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(path)) {
+			props.load(in);
+		} catch (NoSuchFileException e) {
+			// nothing set yet
+		}
+		return props;
+	}
+
+	/**
+	 * Rereads the file. If it can't be read the old settings stay.
+	 * @return true if the settings were reloaded
+	 */
+	boolean reload() {
+		try {
+			snapshot = read(path);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Changes a setting and saves it, keeping every other setting in the file
+	 * @param key the setting
+	 * @param value the new value
+	 * @throws IOException
+	 */
+	synchronized void set(String key, String value) throws IOException {
+		Properties props = readProperties(path);
+		props.setProperty(key, value);
+
+		Path dir = path.getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				props.store(out, COMMENT);
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		snapshot = toMap(props);
+	}
+
+	/**
+	 * Starts reloading the settings whenever the file changes, on a daemon thread. Stopped by
+	 * {@link #close()}.
+	 * @throws IOException if the directory can't be watched
+	 */
+	synchronized void watch() throws IOException {
+		if (watcher != null) return;
+		WatchService service = FileSystems.getDefault().newWatchService();
+		path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watcher = service;
+
+		Thread thread = new Thread(() -> {
+			try {
+				while (true) {
+					WatchKey key = service.take();
+					boolean changed = false;
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (path.getFileName().equals(event.context())) changed = true;
+					}
+					if (changed) reload();
+					if (!key.reset()) return;
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				// stopped
+			}
+		}, "Config watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching the file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+	}
+
+	/**
+	 * @return every setting as of the last load, never changes
+	 */
+	Map<String, String> snapshot() {
+		return snapshot;
+	}
+
+	String getString(String key, String defaultValue) {
+		String value = snapshot.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * @param key the setting
+	 * @param defaultValue the value if it isn't set
+	 * @return true if the setting is "true", ignoring case
+	 */
+	boolean getBoolean(String key, boolean defaultValue) {
+		String value = snapshot.get(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * @param key the setting
+	 * @param defaultValue the value if it isn't set or isn't a number
+	 * @return the setting as an int
+	 */
+	int getInt(String key, int defaultValue) {
+		String value = snapshot.get(key);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static void sop(Object x) {
+		System.out.println(x);
+	}
+
+	public static void main(String[] args) throws IOException {
+		try (Config config = load(DEFAULT_FILE)) {
+			if (args.length > 1) config.set(args[0], args[1]);
+			if (args.length > 0) {
+				sop(args[0] + "=" + config.getString(args[0], ""));
+			} else {
+				for (Map.Entry<String, String> setting : new TreeMap<>(config.snapshot()).entrySet()) {
+					sop(setting.getKey() + "=" + setting.getValue());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package notepatternanalyzer;
+
+import java.io.PrintStream;
+
+/**
+ * Prints lines to a stream like System.out, which is left open when the sink is closed
+ * @author Alumina
+ */
+class ConsoleSink implements OutputSink {
+
+	private final PrintStream out;
+
+	ConsoleSink(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void println(String line) {
+		out.println(line);
+	}
+
+	@Override
+	public void flush() {
+		out.flush();
+	}
+}
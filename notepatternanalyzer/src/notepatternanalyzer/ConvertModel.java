@@ -0,0 +1,49 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import hmm.CPT;
+import hmm.EmissionModel;
+import hmm.HMM;
+import hmm.ModelFile;
+import hmm.SubsetSumEmission;
+
+/**
+ * Converts the comma separated CPTs of a model (Initial, Transition, Emission and Labels files)
+ * into one binary {@link ModelFile}. An emission CPT with fewer columns than there are pitch
+ * class sets holds base weights, like the alumina one, and is stored that way.
+ *
+ * Usage: ConvertModel [prefix] [suffix] [output file]
+ *        ConvertModel data/cpt/alumina 1 data/cpt/alumina1.hmm
+ * @author Alumina
+ */
+class ConvertModel {
+
+	private static final int PITCH_CLASS_SETS = 1 << 12;
+
+	private static void sop(Object x) {
+		System.out.println(x);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String prefix = args.length > 0 ? args[0] : "data/cpt/alumina";
+		String suffix = args.length > 1 ? args[1] : "1";
+		File output = new File(args.length > 2 ? args[2] : prefix + suffix + ".hmm");
+
+		List<String> labels = HMM.readLabels(prefix + "Labels" + suffix);
+		if (labels == null) throw new IllegalArgumentException("Couldn't read " + prefix + "Labels" + suffix);
+		CPT emission = new CPT(prefix + "Emission" + suffix);
+		EmissionModel emit = emission.getNumToStates() < PITCH_CLASS_SETS
+				? new SubsetSumEmission(emission)
+				: EmissionModel.of(emission);
+
+		ModelFile.write(output,
+				new CPT(prefix + "Initial" + suffix),
+				new CPT(prefix + "Transition" + suffix),
+				emit,
+				labels);
+		sop("Wrote " + output + " (" + output.length() + " bytes)");
+	}
+}
@@ -0,0 +1,57 @@
+package notepatternanalyzer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+
+/**
+ * Writes lines to a file through one buffered writer, opened once and kept open until the sink
+ * is closed
+ * @author Alumina
+ */
+class FileSink implements OutputSink {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final String NEWLINE = System.lineSeparator();
+
+	private final Writer writer;
+
+	/**
+	 * @param file the file to append to, created along with its directory if it doesn't exist
+	 * @throws IOException
+	 */
+	FileSink(File file) throws IOException {
+		this(file, true);
+	}
+
+	/**
+	 * @param file the file to write, created along with its directory if it doesn't exist
+	 * @param append whether to add to the end of the file instead of replacing it
+	 * @throws IOException
+	 */
+	FileSink(File file, boolean append) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		// Render workers can race to create the same directory, which mkdirs reports as a failure
+		if (dir != null) Files.createDirectories(dir.toPath());
+		this.writer = new BufferedWriter(new FileWriter(file, append), BUFFER_SIZE);
+	}
+
+	@Override
+	public void println(String line) throws IOException {
+		writer.write(line);
+		writer.write(NEWLINE);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -9,30 +9,30 @@ public class HeldNote implements Comparable<HeldNote> {
 	private int value;
 	private int duration = 0;
 	
-	private KeySignature keySig = KeySignature.C;
-	private int tempo = 500000;
-	private int bpb = 4;
-	private int beatNote = 4;
-	private int ppq = 96;
+	// MetaData is shared, the note only knows which segment it starts in
+	private SegmentTable segments;
+	private int segment;
 	
 	public HeldNote(HeldNote n) {
-		this(n.timestamp, n.value, n.duration, n.keySig, n.tempo, n.bpb, n.beatNote, n.ppq, n.track);
+		this.track = n.track;
+		this.timestamp = n.timestamp;
+		this.value = n.value;
+		this.duration = n.duration;
+		this.segments = n.segments;
+		this.segment = n.segment;
 	}
 	
-	public HeldNote(int timestamp, int value, KeySignature keySig, int tempo, int bpb, int beatNote, int ppq, int track) {
-		this(timestamp, value, 0, keySig, tempo, bpb, beatNote, ppq, track);
+	public HeldNote(int timestamp, int value, SegmentTable segments, int track) {
+		this(timestamp, value, 0, segments, track);
 	}
 	
-	public HeldNote(int timestamp, int value, int duration, KeySignature keySig, int tempo, int bpb, int beatNote, int ppq, int track) {
+	public HeldNote(int timestamp, int value, int duration, SegmentTable segments, int track) {
 		this.track = track;
 		this.timestamp = timestamp;
 		this.value = value;
 		this.duration = duration;
-		this.keySig = keySig;
-		this.tempo = tempo;
-		this.bpb = bpb;
-		this.beatNote = beatNote;
-		this.ppq = ppq;
+		this.segments = segments;
+		this.segment = segments.segmentAt(timestamp);
 	}
 	
 	public int getTrack() {
@@ -48,7 +48,11 @@ public class HeldNote implements Comparable<HeldNote> {
 	}
 	
 	public Note getNote() {
-		return Note.getNote(value, keySig);
+		return Note.getNote(value, getKeySignature());
+	}
+	
+	public KeySignature getKeySignature() {
+		return segments.getKeySignature(segment);
 	}
 	
 	public int getValue() {
@@ -87,7 +91,7 @@ public class HeldNote implements Comparable<HeldNote> {
 	
 	public String toString() {
 //		return "[" + this.getNote() + "_" + this.getOctave() + ":" + (duration == 0 ? "?" : (asFraction(duration, ppq * 4))) + "]";
-		return this.getNote() + "_" + this.getOctave();
+		return ClusterRenderer.appendNote(new StringBuilder(12), this).toString();
 	}
 	
 	private static int getMusescoreDuration(int ticks) {
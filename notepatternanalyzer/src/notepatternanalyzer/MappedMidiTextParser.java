@@ -0,0 +1,264 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses mf2t text straight out of a memory mapped file. mf2t output is plain ASCII, so the
+ * digits and keywords are matched on the raw bytes and no lines or strings are ever created.
+ * Accepts the same input as {@link MidiTextParser} and produces the same events.
+ * @author Alumina
+ */
+class MappedMidiTextParser {
+
+	// Keywords we care about
+	private static final byte[] MFILE = ascii("MFile");
+	private static final byte[] MTRK = ascii("MTrk");
+	private static final byte[] TRKEND = ascii("TrkEnd");
+	private static final byte[] ON = ascii("On");
+	private static final byte[] OFF = ascii("Off");
+	private static final byte[] TEMPO = ascii("Tempo");
+	private static final byte[] KEYSIG = ascii("KeySig");
+	private static final byte[] TIMESIG = ascii("TimeSig");
+
+	private final MidiData data = new MidiData();
+	private final ByteBuffer buf;
+	private final int limit;
+	private int pos;
+
+	private MappedMidiTextParser(ByteBuffer buf) {
+		this.buf = buf;
+		this.pos = buf.position();
+		this.limit = buf.limit();
+	}
+
+	/**
+	 * Maps a mf2t txt file into memory and parses it
+	 * @param file the file to parse
+	 * @return the parsed events
+	 * @throws IOException
+	 */
+	static MidiData parse(File file) throws IOException {
+		return parse(map(file));
+	}
+
+	/**
+	 * Maps a whole file into memory read only
+	 * @param file the file to map
+	 * @return the mapped contents
+	 * @throws IOException
+	 */
+	static MappedByteBuffer map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large to map");
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Parses mf2t text between the buffer's position and limit
+	 * @param buf the ASCII text
+	 * @return the parsed events
+	 */
+	static MidiData parse(ByteBuffer buf) {
+		return read(buf).finish();
+	}
+
+	/**
+	 * Parses a piece of mf2t text without wrapping up, so the result can be appended to the
+	 * other pieces of the file
+	 * @param buf the ASCII text
+	 * @return the parsed events
+	 */
+	static MidiData read(ByteBuffer buf) {
+		MappedMidiTextParser parser = new MappedMidiTextParser(buf);
+		while (parser.pos < parser.limit) {
+			parser.parseLine();
+			parser.nextLine();
+		}
+		return parser.data;
+	}
+
+	/**
+	 * Splits mf2t text at the MTrk lines so each track can be parsed on its own
+	 * @param buf the ASCII text
+	 * @return the header before the first track, followed by one slice per track
+	 */
+	static List<ByteBuffer> split(ByteBuffer buf) {
+		List<ByteBuffer> slices = new ArrayList<>();
+		MappedMidiTextParser parser = new MappedMidiTextParser(buf);
+		int sliceStart = parser.pos;
+		while (parser.pos < parser.limit) {
+			int lineStart = parser.pos;
+			if (parser.keyword(MTRK) && lineStart > sliceStart) {
+				slices.add(slice(buf, sliceStart, lineStart));
+				sliceStart = lineStart;
+			}
+			parser.nextLine();
+		}
+		slices.add(slice(buf, sliceStart, parser.limit));
+		return slices;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int start, int end) {
+		ByteBuffer slice = buf.duplicate();
+		slice.limit(end);
+		slice.position(start);
+		return slice;
+	}
+
+	private void parseLine() {
+		if (pos == limit) return;
+
+		// Catch non-timestamped events
+		if (!isDigit(buf.get(pos))) {
+			if (keyword(MFILE)) {
+				// Capture the ppq value from the file header
+				skipToken();
+				skipToken();
+				int ppq = readInt();
+				if (ppq >= 0) data.setPpq(ppq);
+			} else if (keyword(TRKEND)) {
+				// Push the current track and start a new one
+				data.endTrack();
+			}
+			return;
+		}
+
+		// Timestamped events, dispatched on the first letter of the tag so most lines we don't
+		// care about (Par, PrCh, Meta) are thrown out after a single byte
+		int tick = readInt();
+		if (tick < 0 || !space() || endOfLine()) return;
+		switch (buf.get(pos)) {
+		case 'O':
+			if (keyword(ON)) {
+				parseNote(tick, true);
+			} else if (keyword(OFF)) {
+				parseNote(tick, false);
+			}
+			break;
+		case 'T':
+			if (keyword(TEMPO)) {
+				int tempo = readInt();
+				if (tempo >= 0) data.addMeta(tick, MidiEvents.TEMPO, tempo);
+			} else if (keyword(TIMESIG)) {
+				int bpb = readInt();
+				if (!endOfLine()) pos++;	// skip the slash
+				int beatNote = readInt();
+				if (bpb >= 0 && beatNote >= 0) data.addMeta(tick, MidiEvents.TIME_SIG, MidiEvents.timeSig(bpb, beatNote));
+			}
+			break;
+		case 'K':
+			if (keyword(KEYSIG)) data.addMeta(tick, MidiEvents.KEY_SIG, readSignedInt());
+			break;
+		}
+	}
+
+	/**
+	 * Parses the "ch=1 n=60 v=80" part of a note event
+	 */
+	private void parseNote(int tick, boolean on) {
+		int channel = readArgument();
+		int note = readArgument();
+		int velocity = readArgument();
+		if (note >= 0) data.addNote(tick, on, channel, note, velocity);
+	}
+
+	/**
+	 * Reads the value of a "key=value" token
+	 * @return the value, or -1 if it isn't a number
+	 */
+	private int readArgument() {
+		while (!endOfLine() && buf.get(pos) != '=') pos++;
+		if (!endOfLine()) pos++;
+		int value = readInt();
+		space();
+		return value;
+	}
+
+	/**
+	 * Consumes the keyword and the space after it if the current token matches
+	 * @param keyword the keyword to match
+	 * @return true if it matched
+	 */
+	private boolean keyword(byte[] keyword) {
+		int end = pos + keyword.length;
+		if (end > limit) return false;
+		for (int i = 0; i < keyword.length; i++) {
+			if (buf.get(pos + i) != keyword[i]) return false;
+		}
+		if (end < limit && !isBreak(buf.get(end))) return false;
+		pos = end;
+		space();
+		return true;
+	}
+
+	private boolean space() {
+		if (pos < limit && buf.get(pos) == ' ') {
+			pos++;
+			return true;
+		}
+		return endOfLine();
+	}
+
+	private void skipToken() {
+		while (pos < limit && !isBreak(buf.get(pos))) pos++;
+		space();
+	}
+
+	private void nextLine() {
+		while (pos < limit && buf.get(pos) != '\n') pos++;
+		pos++;
+	}
+
+	private boolean endOfLine() {
+		if (pos >= limit) return true;
+		byte b = buf.get(pos);
+		return b == '\n' || b == '\r';
+	}
+
+	/**
+	 * Reads a non-negative integer
+	 * @return the value, or -1 if there are no digits here
+	 */
+	private int readInt() {
+		if (pos >= limit || !isDigit(buf.get(pos))) return -1;
+		int value = 0;
+		byte b;
+		while (pos < limit && isDigit(b = buf.get(pos))) {
+			value = value * 10 + (b - '0');
+			pos++;
+		}
+		return value;
+	}
+
+	private int readSignedInt() {
+		if (pos < limit && buf.get(pos) == '-') {
+			pos++;
+			return -readInt();
+		}
+		return readInt();
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static boolean isBreak(byte b) {
+		return b == ' ' || b == '\n' || b == '\r';
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,100 @@
+package notepatternanalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parsed contents of a midi file. Meta events from every track are collected into a single
+ * conductor list, and each track that has notes gets its own note event list.
+ * @author Alumina
+ */
+class MidiData {
+
+	// MetaData
+	private int ppq = 96;	// Seemingly the default value, but musescore's is 480
+	private boolean probablyMusescore = true;
+
+	// The events
+	private MidiEvents conductor = new MidiEvents();
+	private List<MidiEvents> tracks = new ArrayList<>();
+	private MidiEvents currTrack = new MidiEvents();
+
+	/**
+	 * Records a note event into the current track
+	 * @param tick the timestamp
+	 * @param on false if this was a note off (or a note on with velocity 0)
+	 * @param channel the midi channel
+	 * @param note the midi note value
+	 * @param velocity the velocity
+	 */
+	void addNote(int tick, boolean on, int channel, int note, int velocity) {
+		currTrack.addNote(tick, on && velocity != 0 ? MidiEvents.ON : MidiEvents.OFF, channel, note, velocity);
+
+		// Part of the Musescore detection
+		if (!on) this.probablyMusescore = false;
+	}
+
+	/**
+	 * Records a tempo, key signature or time signature event
+	 * @param tick the timestamp
+	 * @param type the event type
+	 * @param value the event value
+	 */
+	void addMeta(int tick, int type, int value) {
+		conductor.addMeta(tick, type, value);
+	}
+
+	/**
+	 * Ends the current track. Tracks without notes are dropped.
+	 */
+	void endTrack() {
+		if (!currTrack.isEmpty()) {
+			currTrack.sort();
+			tracks.add(currTrack);
+			currTrack = new MidiEvents();
+		}
+	}
+
+	/**
+	 * Appends the events of a part of the file that was parsed on its own. Parts have to be
+	 * appended in file order so events on the same tick stay in the order they were read.
+	 * @param part the events from a later part of the file
+	 */
+	void append(MidiData part) {
+		conductor.addAll(part.conductor);
+		tracks.addAll(part.tracks);
+		if (!part.probablyMusescore) this.probablyMusescore = false;
+	}
+
+	void setPpq(int ppq) {
+		this.ppq = ppq;
+	}
+
+	/**
+	 * Wraps up parsing
+	 * @return this
+	 */
+	MidiData finish() {
+		conductor.sort();
+
+		// Another point of musescore detection
+		if (this.ppq != 480) this.probablyMusescore = false;
+		return this;
+	}
+
+	int getPpq() {
+		return ppq;
+	}
+
+	boolean isMusescore() {
+		return probablyMusescore;
+	}
+
+	MidiEvents getConductor() {
+		return conductor;
+	}
+
+	List<MidiEvents> getTracks() {
+		return tracks;
+	}
+}
@@ -0,0 +1,173 @@
+package notepatternanalyzer;
+
+import java.util.Arrays;
+
+/**
+ * Growable primitive storage for the timestamped events of a single track. Each event is a
+ * row across parallel int arrays so nothing is boxed and no strings are kept after parsing.
+ * @author Alumina
+ */
+class MidiEvents {
+
+	// Event type codes
+	static final int ON = 0;
+	static final int OFF = 1;
+	static final int TEMPO = 2;
+	static final int KEY_SIG = 3;
+	static final int TIME_SIG = 4;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// The event columns
+	private int[] ticks = new int[INITIAL_CAPACITY];
+	private int[] types = new int[INITIAL_CAPACITY];
+	private int[] channels = new int[INITIAL_CAPACITY];
+	private int[] notes = new int[INITIAL_CAPACITY];
+	private int[] velocities = new int[INITIAL_CAPACITY];
+	private int[] values = new int[INITIAL_CAPACITY];
+	private int size = 0;
+	private boolean sorted = true;
+
+	/**
+	 * Adds a note event
+	 * @param tick the timestamp of the event
+	 * @param type ON or OFF
+	 * @param channel the midi channel
+	 * @param note the midi note value
+	 * @param velocity the velocity
+	 */
+	void addNote(int tick, int type, int channel, int note, int velocity) {
+		add(tick, type, channel, note, velocity, 0);
+	}
+
+	/**
+	 * Adds a meta event (tempo, key signature, time signature)
+	 * @param tick the timestamp of the event
+	 * @param type TEMPO, KEY_SIG or TIME_SIG
+	 * @param value the value of the event, see {@link #timeSig(int, int)} for time signatures
+	 */
+	void addMeta(int tick, int type, int value) {
+		add(tick, type, 0, 0, 0, value);
+	}
+
+	private void add(int tick, int type, int channel, int note, int velocity, int value) {
+		if (size == ticks.length) grow();
+		if (size > 0 && tick < ticks[size - 1]) sorted = false;
+		ticks[size] = tick;
+		types[size] = type;
+		channels[size] = channel;
+		notes[size] = note;
+		velocities[size] = velocity;
+		values[size] = value;
+		size++;
+	}
+
+	private void grow() {
+		int capacity = ticks.length * 2;
+		ticks = Arrays.copyOf(ticks, capacity);
+		types = Arrays.copyOf(types, capacity);
+		channels = Arrays.copyOf(channels, capacity);
+		notes = Arrays.copyOf(notes, capacity);
+		velocities = Arrays.copyOf(velocities, capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	/**
+	 * Appends all the events of another list, keeping their order
+	 * @param other the events to append
+	 */
+	void addAll(MidiEvents other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.ticks[i], other.types[i], other.channels[i], other.notes[i], other.velocities[i], other.values[i]);
+		}
+	}
+
+	/**
+	 * Stable sort by tick, so events on the same tick keep the order they were read in.
+	 * Tracks are almost always in order already, so insertion sort is plenty.
+	 */
+	void sort() {
+		if (sorted) return;
+		for (int i = 1; i < size; i++) {
+			int tick = ticks[i], type = types[i], channel = channels[i], note = notes[i], velocity = velocities[i], value = values[i];
+			int j = i - 1;
+			while (j >= 0 && ticks[j] > tick) {
+				ticks[j + 1] = ticks[j];
+				types[j + 1] = types[j];
+				channels[j + 1] = channels[j];
+				notes[j + 1] = notes[j];
+				velocities[j + 1] = velocities[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			ticks[j + 1] = tick;
+			types[j + 1] = type;
+			channels[j + 1] = channel;
+			notes[j + 1] = note;
+			velocities[j + 1] = velocity;
+			values[j + 1] = value;
+		}
+		sorted = true;
+	}
+
+	/**
+	 * Finds the end of the group of events sharing a timestamp
+	 * @param index the first event of the group
+	 * @return the index after the last event with the same tick
+	 */
+	int groupEnd(int index) {
+		int end = index;
+		while (end < size && ticks[end] == ticks[index]) end++;
+		return end;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int getTick(int i) {
+		return ticks[i];
+	}
+
+	int getType(int i) {
+		return types[i];
+	}
+
+	int getChannel(int i) {
+		return channels[i];
+	}
+
+	int getNote(int i) {
+		return notes[i];
+	}
+
+	int getVelocity(int i) {
+		return velocities[i];
+	}
+
+	int getValue(int i) {
+		return values[i];
+	}
+
+	/**
+	 * Packs a time signature into a single event value
+	 * @param bpb beats per bar
+	 * @param beatNote the note that gets the beat
+	 * @return the packed value
+	 */
+	static int timeSig(int bpb, int beatNote) {
+		return (bpb << 16) | (beatNote & 0xFFFF);
+	}
+
+	static int getBpb(int timeSig) {
+		return timeSig >>> 16;
+	}
+
+	static int getBeatNote(int timeSig) {
+		return timeSig & 0xFFFF;
+	}
+}
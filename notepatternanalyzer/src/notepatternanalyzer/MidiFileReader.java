@@ -0,0 +1,244 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads Standard MIDI Files (.mid) directly, so the mf2t text conversion isn't needed anymore.
+ * Events are decoded with absolute reads on the buffer and go straight into a {@link MidiData},
+ * the same as the text parsers, so nothing is allocated per event.
+ * @author Alumina
+ */
+class MidiFileReader {
+
+	// Chunk types
+	private static final int MTHD = 0x4D546864;
+	private static final int MTRK = 0x4D54726B;
+
+	// Meta event types
+	private static final int META_END_OF_TRACK = 0x2F;
+	private static final int META_TEMPO = 0x51;
+	private static final int META_TIME_SIG = 0x58;
+	private static final int META_KEY_SIG = 0x59;
+
+	private final MidiData data = new MidiData();
+	private final ByteBuffer buf;
+	private int pos;
+
+	private MidiFileReader(ByteBuffer buf) {
+		this.buf = buf;
+		this.pos = buf.position();
+	}
+
+	/**
+	 * Checks for the MThd header
+	 * @param buf the file contents
+	 * @return true if the buffer holds a standard midi file
+	 */
+	static boolean isMidiFile(ByteBuffer buf) {
+		return buf.remaining() >= 4 && buf.getInt(buf.position()) == MTHD;
+	}
+
+	/**
+	 * Maps a .mid file into memory and reads it
+	 * @param file the file to read
+	 * @return the parsed events
+	 * @throws IOException if the file isn't a valid midi file
+	 */
+	static MidiData parse(File file) throws IOException {
+		return parse(MappedMidiTextParser.map(file));
+	}
+
+	/**
+	 * Reads a standard midi file between the buffer's position and limit
+	 * @param buf the file contents
+	 * @return the parsed events
+	 * @throws IOException if the data isn't a valid midi file
+	 */
+	static MidiData parse(ByteBuffer buf) throws IOException {
+		if (!isMidiFile(buf)) throw new IOException("Missing MThd header");
+		return read(buf).finish();
+	}
+
+	/**
+	 * Reads a run of chunks without wrapping up, so the result can be appended to the other
+	 * chunks of the file
+	 * @param buf the chunks
+	 * @return the parsed events
+	 * @throws IOException on malformed chunks
+	 */
+	static MidiData read(ByteBuffer buf) throws IOException {
+		MidiFileReader reader = new MidiFileReader(buf);
+		while (reader.pos < buf.limit()) {
+			checkChunk(buf, reader.pos);
+			int type = buf.getInt(reader.pos);
+			int length = buf.getInt(reader.pos + 4);
+			int start = reader.pos + 8;
+
+			// Skip over chunks we don't know about
+			if (type == MTHD) {
+				reader.readHeader(start, length);
+			} else if (type == MTRK) {
+				reader.readTrack(start, start + length);
+			}
+			reader.pos = start + length;
+		}
+		return reader.data;
+	}
+
+	/**
+	 * Splits a standard midi file into its chunks so each track can be read on its own
+	 * @param buf the file contents
+	 * @return one slice per chunk, starting with the header
+	 * @throws IOException on malformed chunks
+	 */
+	static List<ByteBuffer> split(ByteBuffer buf) throws IOException {
+		List<ByteBuffer> slices = new ArrayList<>();
+		int pos = buf.position();
+		while (pos < buf.limit()) {
+			checkChunk(buf, pos);
+			int end = pos + 8 + buf.getInt(pos + 4);
+			ByteBuffer slice = buf.duplicate();
+			slice.limit(end);
+			slice.position(pos);
+			slices.add(slice);
+			pos = end;
+		}
+		return slices;
+	}
+
+	/**
+	 * Makes sure a whole chunk fits in the buffer before anything reads it. The comparisons are
+	 * arranged so a huge length can't overflow past the check.
+	 * @param buf the file contents
+	 * @param pos where the chunk header starts
+	 * @throws IOException if the header or the data is cut off
+	 */
+	private static void checkChunk(ByteBuffer buf, int pos) throws IOException {
+		if (buf.limit() - pos < 8) throw new IOException("Truncated chunk header at byte " + pos);
+		int length = buf.getInt(pos + 4);
+		if (length < 0 || length > buf.limit() - pos - 8) throw new IOException("Truncated chunk at byte " + pos);
+	}
+
+	private void readHeader(int start, int length) throws IOException {
+		if (length < 6) throw new IOException("Invalid MThd length " + length);
+
+		// Division is ticks per quarter unless the top bit is set, which means SMPTE timing
+		int division = buf.getShort(start + 4) & 0xFFFF;
+		if ((division & 0x8000) == 0) data.setPpq(division);
+	}
+
+	/**
+	 * Decodes the events of one MTrk chunk
+	 * @param start the first byte of the chunk data
+	 * @param end the byte after the chunk data
+	 * @throws IOException on malformed events
+	 */
+	private void readTrack(int start, int end) throws IOException {
+		pos = start;
+		int tick = 0;
+		int status = 0;
+		while (pos < end) {
+			tick += readVariableLength(end);
+			if (pos >= end) throw new IOException("Truncated event at byte " + pos);
+
+			// Running status reuses the last channel status when the data byte comes first
+			int b = buf.get(pos) & 0xFF;
+			if (b >= 0x80) {
+				status = b;
+				pos++;
+			} else if (status == 0) {
+				throw new IOException("Data byte without status at byte " + pos);
+			}
+
+			if (status == 0xFF) {
+				if (pos >= end) throw new IOException("Truncated meta event at byte " + pos);
+				int type = buf.get(pos++) & 0xFF;
+				int length = readVariableLength(end);
+				if (length > end - pos) throw new IOException("Truncated meta event at byte " + pos);
+				readMeta(tick, type, length);
+				pos += length;
+				status = 0;
+				if (type == META_END_OF_TRACK) break;
+			} else if (status == 0xF0 || status == 0xF7) {
+				// Sysex, we don't care
+				int length = readVariableLength(end);
+				pos += length;
+				status = 0;
+			} else {
+				readChannelEvent(tick, status, end);
+			}
+		}
+		data.endTrack();
+	}
+
+	private void readChannelEvent(int tick, int status, int end) throws IOException {
+		int channel = (status & 0x0F) + 1;	// mf2t counts channels from 1
+		switch (status & 0xF0) {
+		case 0x80:
+		case 0x90:
+			if (end - pos < 2) throw new IOException("Truncated note event at byte " + pos);
+			int note = buf.get(pos) & 0x7F;
+			int velocity = buf.get(pos + 1) & 0x7F;
+			data.addNote(tick, (status & 0xF0) == 0x90, channel, note, velocity);
+			pos += 2;
+			break;
+		case 0xA0:	// Aftertouch
+		case 0xB0:	// Controller
+		case 0xE0:	// Pitch bend
+			pos += 2;
+			break;
+		case 0xC0:	// Program change
+		case 0xD0:	// Channel pressure
+			pos += 1;
+			break;
+		default:
+			throw new IOException("Unknown status " + Integer.toHexString(status) + " at byte " + pos);
+		}
+	}
+
+	private void readMeta(int tick, int type, int length) {
+		switch (type) {
+		case META_TEMPO:
+			if (length >= 3) {
+				int tempo = ((buf.get(pos) & 0xFF) << 16) | ((buf.get(pos + 1) & 0xFF) << 8) | (buf.get(pos + 2) & 0xFF);
+				data.addMeta(tick, MidiEvents.TEMPO, tempo);
+			}
+			break;
+		case META_TIME_SIG:
+			if (length >= 2) {
+				// The denominator is stored as a power of two
+				int bpb = buf.get(pos) & 0xFF;
+				int beatNote = 1 << (buf.get(pos + 1) & 0xFF);
+				data.addMeta(tick, MidiEvents.TIME_SIG, MidiEvents.timeSig(bpb, beatNote));
+			}
+			break;
+		case META_KEY_SIG:
+			if (length >= 1) {
+				// Sharps/flats as an unsigned byte, which is what mf2t prints and KeySignature expects
+				data.addMeta(tick, MidiEvents.KEY_SIG, buf.get(pos) & 0xFF);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Reads a variable length quantity (7 bits per byte, high bit set on all but the last)
+	 * @param end the end of the current chunk
+	 * @return the value
+	 * @throws IOException if the quantity runs past the chunk
+	 */
+	private int readVariableLength(int end) throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			if (pos >= end) throw new IOException("Truncated variable length quantity at byte " + pos);
+			int b = buf.get(pos++) & 0xFF;
+			value = (value << 7) | (b & 0x7F);
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Variable length quantity too long at byte " + pos);
+	}
+}
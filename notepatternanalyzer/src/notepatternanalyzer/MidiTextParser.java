@@ -0,0 +1,149 @@
+package notepatternanalyzer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Parses mf2t text into primitive event lists. Each line is scanned once from left to right,
+ * so there is no splitting and no strings are kept once the line is done.
+ * @author Alumina
+ */
+class MidiTextParser {
+
+	private final MidiData data = new MidiData();
+	private String line;
+	private int pos;
+
+	/**
+	 * Parses a mf2t txt file and retrieves the note data
+	 * @param file the file to parse
+	 * @return the parsed events
+	 * @throws IOException
+	 */
+	static MidiData parse(File file) throws IOException {
+		MidiTextParser parser = new MidiTextParser();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			while ((parser.line = br.readLine()) != null) {
+				parser.parseLine();
+			}
+		} finally {
+			br.close();
+		}
+		return parser.data.finish();
+	}
+
+	private void parseLine() {
+		pos = 0;
+		if (pos == line.length()) return;
+
+		// Catch non-timestamped events
+		if (!isDigit(line.charAt(pos))) {
+			if (keyword("MFile")) {
+				// Capture the ppq value from the file header
+				skipToken();
+				skipToken();
+				int ppq = readInt();
+				if (ppq >= 0) data.setPpq(ppq);
+			} else if (keyword("TrkEnd")) {
+				// Push the current track and start a new one
+				data.endTrack();
+			}
+			return;
+		}
+
+		// Timestamped events
+		int tick = readInt();
+		if (tick < 0 || !space()) return;
+		if (keyword("On")) {
+			parseNote(tick, true);
+		} else if (keyword("Off")) {
+			parseNote(tick, false);
+		} else if (keyword("Tempo")) {
+			int tempo = readInt();
+			if (tempo >= 0) data.addMeta(tick, MidiEvents.TEMPO, tempo);
+		} else if (keyword("KeySig")) {
+			data.addMeta(tick, MidiEvents.KEY_SIG, readSignedInt());
+		} else if (keyword("TimeSig")) {
+			int bpb = readInt();
+			pos++;	// skip the slash
+			int beatNote = readInt();
+			if (bpb >= 0 && beatNote >= 0) data.addMeta(tick, MidiEvents.TIME_SIG, MidiEvents.timeSig(bpb, beatNote));
+		}
+	}
+
+	/**
+	 * Parses the "ch=1 n=60 v=80" part of a note event
+	 */
+	private void parseNote(int tick, boolean on) {
+		int channel = readArgument();
+		int note = readArgument();
+		int velocity = readArgument();
+		if (note >= 0) data.addNote(tick, on, channel, note, velocity);
+	}
+
+	/**
+	 * Reads the value of a "key=value" token
+	 * @return the value, or -1 if it isn't a number
+	 */
+	private int readArgument() {
+		while (pos < line.length() && line.charAt(pos) != '=') pos++;
+		pos++;
+		int value = readInt();
+		space();
+		return value;
+	}
+
+	/**
+	 * Consumes the keyword and the space after it if the current token matches
+	 * @param keyword the keyword to match
+	 * @return true if it matched
+	 */
+	private boolean keyword(String keyword) {
+		int end = pos + keyword.length();
+		if (!line.startsWith(keyword, pos) || (end < line.length() && line.charAt(end) != ' ')) return false;
+		pos = end;
+		space();
+		return true;
+	}
+
+	private boolean space() {
+		if (pos < line.length() && line.charAt(pos) == ' ') {
+			pos++;
+			return true;
+		}
+		return pos == line.length();
+	}
+
+	private void skipToken() {
+		while (pos < line.length() && line.charAt(pos) != ' ') pos++;
+		space();
+	}
+
+	/**
+	 * Reads a non-negative integer
+	 * @return the value, or -1 if there are no digits here
+	 */
+	private int readInt() {
+		if (pos >= line.length() || !isDigit(line.charAt(pos))) return -1;
+		int value = 0;
+		while (pos < line.length() && isDigit(line.charAt(pos))) {
+			value = value * 10 + (line.charAt(pos++) - '0');
+		}
+		return value;
+	}
+
+	private int readSignedInt() {
+		if (pos < line.length() && line.charAt(pos) == '-') {
+			pos++;
+			return -readInt();
+		}
+		return readInt();
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
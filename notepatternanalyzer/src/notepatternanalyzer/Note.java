@@ -60,11 +60,36 @@ enum Note {
 	 * 9
 	 * 10 - flat
 	 * 11
+	 * 
+	 * The answers only depend on the key and the pitch class, so they're all worked out once.
 	 * @param value of midi note
 	 * @param ks key signature
 	 * @return a note
 	 */
 	static Note getNote(int value, KeySignature ks) {
+		return Spellings.TABLE[ks.ordinal()][value % 12];
+	}
+	
+	/**
+	 * Every spelling, [key signature ordinal][pitch class]. In its own class so it's built after
+	 * both enums are.
+	 */
+	private static final class Spellings {
+		private static final Note[][] TABLE = new Note[KeySignature.values().length][12];
+		
+		static {
+			for (KeySignature ks : KeySignature.values()) {
+				for (int value = 0; value < 12; value++) {
+					TABLE[ks.ordinal()][value] = spell(value, ks);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Works out a spelling for {@link #getNote(int, KeySignature)} the slow way
+	 */
+	private static Note spell(int value, KeySignature ks) {
 		for (Note n : Note.values()) {
 
 			// First checks to make sure the note n is the same as the note we're passing in
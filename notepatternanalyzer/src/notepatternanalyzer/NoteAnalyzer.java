@@ -1,16 +1,18 @@
 package notepatternanalyzer;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.LinkedList;
 import java.util.List;
 
 import hmm.*;
 
 class NoteAnalyzer {
+	static final int QUEUE_SIZE = 1024;
+	
 	private File file;
+	private final OutputSink console;
+	private final OutputSink output;
 	private int prevHeldNoteValue = 0;
 	private int tempo;
 	private int bpb;
@@ -19,9 +21,17 @@ class NoteAnalyzer {
 	private int nextMeasureInTicks;
 	private int currentMeasure;
 	private boolean alreadyPrinted;
+	private final StringBuilder line = new StringBuilder(128);	// reused for every line printed
 	
-	NoteAnalyzer(File file){
+	/**
+	 * @param file the midi file to analyze
+	 * @param console where the full analysis gets printed
+	 * @param output where the analysis gets saved, {@link OutputSink#NONE} to not save it
+	 */
+	NoteAnalyzer(File file, OutputSink console, OutputSink output){
 		this.file = file;
+		this.console = console;
+		this.output = output;
 		nextMeasureInTicks = 0;
 		currentMeasure = 1;
 		alreadyPrinted = false;
@@ -67,8 +77,10 @@ class NoteAnalyzer {
 				printToFile("=================================================");
 			}
 			
-			sop("Measure " + currentMeasure);
-			printToFile("Measure " + currentMeasure);
+			line.setLength(0);
+			String measure = ClusterRenderer.appendMeasure(line, currentMeasure).toString();
+			sop(measure);
+			printToFile(measure);
 			sop("=================================================");
 			printToFile("=================================================");
 			nextMeasureInTicks = calculateNextMeasure(nextMeasureInTicks);
@@ -77,20 +89,45 @@ class NoteAnalyzer {
 	}
 	
 	/**
-	 * Prints data to file in directory "data/output" if printToFile is true in the config file
+	 * Prints data to the output sink, the file in directory "data/output" if printToFile is true
+	 * in the config file
 	 * @param string to print
 	 * @throws IOException
 	 */
 	private void printToFile(String string) throws IOException {
-		if (PropertyAccessObject.getProperty("printToFile").equals("true")) {
-			String[] filename = file.getName().split("data/input/");
-			FileWriter fw = new FileWriter(new File("data/output/" + filename[0]), true);
-			PrintWriter pw = new PrintWriter(fw);
-			pw.println(string);
+		output.println(string);
+	}
+	
+	/**
+	 * The output file for an input file, saved to while printToFile is true in the config file.
+	 * The setting is checked on every line, which is only a lookup in the config's snapshot, so
+	 * changing it in the file while the config is watched takes effect from the next line. The
+	 * file is opened the first time a line is saved.
+	 * @param file the input file
+	 * @param config the settings
+	 * @return the sink for the output file
+	 */
+	private static OutputSink openOutput(File file, Config config) {
+		return new OutputSink() {
+			private OutputSink sink;
 			
-			pw.close();
-			fw.close();
-		}
+			@Override
+			public void println(String line) throws IOException {
+				if (!config.getBoolean("printToFile", false)) return;
+				if (sink == null) sink = new AsyncSink(new FileSink(new File("data/output/" + file.getName())), QUEUE_SIZE);
+				sink.println(line);
+			}
+			
+			@Override
+			public void flush() throws IOException {
+				if (sink != null) sink.flush();
+			}
+			
+			@Override
+			public void close() throws IOException {
+				if (sink != null) sink.close();
+			}
+		};
 	}
 	/**
 	 * Calculates distance between the note of a melody (track 1) and the note 
@@ -101,81 +138,117 @@ class NoteAnalyzer {
 	 * @return relativeDistance The relative distance between the two notes
 	 */
 	private int calculateRelativeDistance(NoteCluster notes) {
-		List<HeldNote> heldNotes = notes.getNotes();
-		HeldNote highestHeldNote = new HeldNote(0,0,KeySignature.C, 0, 
-				0, 0, 0, -1);
+		int highestValue = 0;
+		boolean found = false;
 		
 		// Finds the highest note of the notes in track 1
-		for (HeldNote hn : heldNotes) {
+		for (int i = 0; i < notes.numNotes(); i++) {
+			HeldNote hn = notes.getNote(i);
 			if (hn.getTrack() == 1 && hn.getStartTime() == notes.getTimeStamp()) {
-				if (hn.getRawValue() > highestHeldNote.getRawValue()) {
-					highestHeldNote = hn;
+				if (hn.getRawValue() > highestValue) {
+					highestValue = hn.getRawValue();
+					found = true;
 				}
 			}
 		}
 		
-		if (highestHeldNote.getTrack() == -1) {
+		if (!found) {
 			return 0;
 		}
 		
-		int relativeDistance = highestHeldNote.getRawValue() - prevHeldNoteValue;
-		prevHeldNoteValue = highestHeldNote.getRawValue();
+		int relativeDistance = highestValue - prevHeldNoteValue;
+		prevHeldNoteValue = highestValue;
 		return relativeDistance;
 	}
 	
-	private String printNotes(NoteCluster nc) {
+	/**
+	 * Renders a cluster and its relative distance into the reused line
+	 * @param nc the cluster
+	 * @return the line, only good until the next line is printed
+	 */
+	private StringBuilder printNotes(NoteCluster nc) {
+		line.setLength(0);
+		ClusterRenderer.appendCluster(line, nc);
+		
 		// 86 was chosen to be the place to print the relative distances because
 		// the longest note cluster string length was 85.
-		String s = nc.toString();
-		int numberOfSpaces = 86 - s.length();
-				
-		// Appends spaces to print relative distances
-		for (int i = 0; i < numberOfSpaces; i++) {
-			s += " ";
-		}
-		
-		s += calculateRelativeDistance(nc);
-		return s;
+		ClusterRenderer.padTo(line, 0, 86);
+		return line.append(calculateRelativeDistance(nc));
 	}
 	
 	private void updateAlreadyPrinted(boolean alreadyPrinted) {
 		this.alreadyPrinted = alreadyPrinted;
 	}
 	
-	private static void sop(Object x) {
-		System.out.println(x);
+	private void sop(Object x) throws IOException {
+		console.println(String.valueOf(x));
 	}
 	
+	/**
+	 * Prints the analysis of every cluster of a sequence, with the guessed chord at the end of
+	 * each console line
+	 * @param ns the sequence
+	 * @param guessedChords the chord of each cluster
+	 * @throws IOException
+	 */
+	void analyze(NoteSequence ns, List<String> guessedChords) throws IOException {
+		int i = 0;
+		for (NoteCluster notes : ns) {
+			printTimeSig(notes, ns);
+			printTempo(notes);
+			printMeasure(notes);
+			
+			// printNotes moves the relative distance along, so only call it once per cluster
+			StringBuilder line = printNotes(notes);
+			printToFile(line.toString());
+			sop(line.append(' ').append(guessedChords.get(i++)));
+			updateAlreadyPrinted(false);
+		}
+	}
+	
+	/**
+	 * Loads the chord guessing model. That's the binary model file named by the model setting
+	 * if there is one, the alumina CPTs otherwise.
+	 * @param config the settings
+	 * @return the model
+	 * @throws IOException
+	 */
+	static CompiledHMM loadModel(Config config) throws IOException {
+		String model = config.getString("model", null);
+		if (model != null) return ModelFile.read(new File(model)).compile();
+		return CompiledHMM.compile(
+				new CPT("data/cpt/aluminaInitial1"),
+				new CPT("data/cpt/aluminaTransition1"),
+				new SubsetSumEmission(new CPT("data/cpt/aluminaEmission1")),
+				HMM.readLabels("data/cpt/aluminaLabels1"));
+	}
+	
+	/**
+	 * With no arguments analyzes the sample file, printing to the console. Otherwise analyzes a
+	 * whole directory or glob, see {@link BatchAnalyzer}.
+	 */
 	public static void main(String[] args) {
-		NoteAnalyzer na = new NoteAnalyzer(new File("data/input/theishterSample2.txt"));
+		if (args.length > 0) {
+			BatchAnalyzer.main(args);
+			return;
+		}
+		
+		File file = new File("data/input/theishterSample2.txt");
 		NoteSequence ns;
-		try {
+		try (Config config = Config.load(Config.DEFAULT_FILE);
+				OutputSink console = new AsyncSink(new ConsoleSink(System.out), QUEUE_SIZE);
+				OutputSink output = openOutput(file, config)) {
+			config.watch();
+			NoteAnalyzer na = new NoteAnalyzer(file, console, output);
 			ns = new NoteSequence(na.file);
 			
-			HMM<NoteCluster> chordGuesser = HMM.createHMM(
-					new CPT("data/cpt/aluminaInitial1"),
-					new CPT("data/cpt/aluminaTransition1"),
-					(new CPT("data/cpt/aluminaEmission1")).powerup(),
-					HMM.readLabels("data/cpt/aluminaLabels1"),
-					ns);
+			HMM<NoteCluster> chordGuesser = HMM.createHMM(loadModel(config), ns);
 			if (chordGuesser == null) {
-				System.out.println("blah");
-				System.out.println(ns.size());
+				na.sop("blah");
+				na.sop(ns.size());
 				return;
 			}
-			List<String> guessedChords = chordGuesser.inferHidden();
-			int i = 0;
-			
-			for (NoteCluster notes : ns) {
-				na.printTimeSig(notes, ns);
-				na.printTempo(notes);
-				na.printMeasure(notes);
-				
-				sop(na.printNotes(notes) + " " + guessedChords.get(i++));
-				
-				na.printToFile(na.printNotes(notes));
-				na.updateAlreadyPrinted(false);
-			}
+			na.analyze(ns, chordGuesser.inferHidden());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
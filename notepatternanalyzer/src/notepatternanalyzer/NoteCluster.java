@@ -1,8 +1,6 @@
 package notepatternanalyzer;
 
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Collections;
 
 import hmm.HMMObservable;
 
@@ -12,74 +10,18 @@ import hmm.HMMObservable;
  */
 class NoteCluster implements HMMObservable {
     
-	// Primitive data
-	private HeldNote[][] notes = new HeldNote[9][12];
-	private HeldNote[][] newNotes = new HeldNote[9][12];
-	private int duration = 0;
-    
-	// new stuff
-	List<HeldNote> heldNotes, releasedNotes;//, pressedNotes;
-	
-	// More "meta" data
-	private KeySignature keySig;
-	private int tempo;
-	private int ppq;
-	private int bpb;
-	private int beatNote;
-	private int timestamp;
+	// The row of the store this cluster views
+	private final ClusterStore store;
+	private final int index;
 	
 	/**
-	 * pls don't ask
-	 * @param prevNotes
-	 * @param currNotes
-	 * @param timestamp
-	 * @param keySig
-	 * @param tempo
-	 * @param bpb
-	 * @param beatNote
-	 * @param ppq
+	 * Clusters are views over a row of a ClusterStore, so they are cheap to make and hold no data
+	 * @param store the store holding the track's clusters
+	 * @param index the row of the cluster
 	 */
-	public NoteCluster(List<HeldNote> prevNotes, List<HeldNote> currNotes, int timestamp, KeySignature keySig, float tempo, int bpb, int beatNote, int ppq) {
-		
-		heldNotes = new ArrayList<>();
-		releasedNotes = new ArrayList<>();
-		//pressedNotes = new ArrayList<>();
-		
-		// This section here can definitely be shortened somehow
-		
-		// get the held notes from previous notes not released at timestamp
-		for (HeldNote note : prevNotes) {
-			if (note.getEndTime() != timestamp) {
-				this.setNote(note, false);
-				this.heldNotes.add(note);
-			}
-		}
-		
-		// add all the notes to get the new notes
-		for (HeldNote note : currNotes) {
-			if (note.getStartTime() == timestamp) {
-				this.setNote(note, true);
-				this.heldNotes.add(note);
-				//this.pressedNotes.add(note);
-			}
-		}
-		
-		// do opposite of first loop to get released notes
-		for (HeldNote note : prevNotes) {
-			if (note.getEndTime() == timestamp) {
-				this.releasedNotes.add(note);
-			}
-		}
-		
-		this.timestamp = timestamp;
-		this.keySig = keySig;
-		this.tempo = Math.round(60000000 / tempo);
-		this.bpb = bpb;
-		this.beatNote = beatNote;
-		this.ppq = ppq;
-
-		Collections.sort(heldNotes);
-		Collections.sort(releasedNotes);
+	NoteCluster(ClusterStore store, int index) {
+		this.store = store;
+		this.index = index;
 	}
 	
 	/**
@@ -89,7 +31,7 @@ class NoteCluster implements HMMObservable {
 	 * @return boolean of whether note is on
 	 */
 	public boolean noteOn(int value, int octave) {
-		return notes[octave][value] != null;
+		return store.isHeld(index, (octave + 1) * 12 + value);
 	}
 	
 	/**
@@ -99,7 +41,27 @@ class NoteCluster implements HMMObservable {
 	 * @return boolean of whether note is on
 	 */
 	public boolean noteOn(Note note, int octave) {
-		return notes[octave][note.getValue()] != null;
+		return noteOn(note.getValue(), octave);
+	}
+	
+	/**
+	 * Checks if a note was pressed at this cluster's timestamp
+	 * @param value the value [0,11] of the note to check
+	 * @param octave the octave to check
+	 * @return boolean of whether note was just pressed
+	 */
+	public boolean notePressed(int value, int octave) {
+		return store.isPressed(index, (octave + 1) * 12 + value);
+	}
+	
+	/**
+	 * Checks if a note was pressed at this cluster's timestamp
+	 * @param note the note to check
+	 * @param octave the octave to check
+	 * @return boolean of whether note was just pressed
+	 */
+	public boolean notePressed(Note note, int octave) {
+		return notePressed(note.getValue(), octave);
 	}
 	
 	/**
@@ -109,7 +71,8 @@ class NoteCluster implements HMMObservable {
 	 * @return track or -1 if no note
 	 */
 	public int getTrack(int value, int octave) {
-		return notes[octave][value] != null ? notes[octave][value].getTrack() : -1;
+		int offset = store.findHeld(index, (octave + 1) * 12 + value);
+		return offset != -1 ? store.getNote(offset).getTrack() : -1;
 	}
 	
 	/**
@@ -119,94 +82,76 @@ class NoteCluster implements HMMObservable {
 	 * @return track
 	 */
 	public int getTrack(Note note, int octave) {
-		return notes[octave][note.getValue()] != null ? notes[octave][note.getValue()].getTrack() : -1;
-	}
-	
-	/**
-	 * Sets the boolean value for the corresponding note
-	 * @param rawValue the raw value of the note
-	 * @param on the boolean we're seting the note to
-	 */
-	private void setNote(HeldNote n, boolean newNote) {
-		int octave = n.getRawValue() / 12 - 1;
-		int value = n.getRawValue() % 12;
-		this.notes[octave][value] = n;
-		if (newNote) this.newNotes[octave][value] = n;
+		return getTrack(note.getValue(), octave);
 	}
 	
 	public void setDuration(int duration) {
-		this.duration = duration;
+		store.setDuration(index, duration);
 	}
 	
 	public int getDuration() {
-		return duration;
+		return store.getDuration(index);
 	}
 	
 	public int getTimeStamp() {
-		return timestamp;
+		return store.getTimeStamp(index);
 	}
 	
 	public KeySignature getKeySignature() {
-		return keySig;
+		return store.getKeySignature(index);
 	}
 	
 	public int getTempo(){
-		return tempo;
+		return store.getTempo(index);
 	}
 	
 	public int getBpb() {
-		return bpb;
+		return store.getBpb(index);
 	}
 	
 	public int getBeatNote() {
-		return beatNote;
+		return store.getBeatNote(index);
 	}
 	
 	public List<HeldNote> getNotes() {
-		return heldNotes;
+		return store.getNotes(store.heldStart(index), store.releasedStart(index));
 	}
 	
 	public List<HeldNote> getReleasedNotes() {
-		return releasedNotes;
+		return store.getNotes(store.releasedStart(index), store.releasedEnd(index));
 	}
 	
-	private static long gcm(long a, long b) {
-	    return b == 0 ? a : gcm(b, a % b); // Not bad for one line of code :)
+	/**
+	 * The number of held notes, for walking them without making a list
+	 */
+	int numNotes() {
+		return store.releasedStart(index) - store.heldStart(index);
 	}
-
-	private static String asFraction(long a, long b) {
-	    long gcm = gcm(a, b);
-	    return (a / gcm) + "/" + (b / gcm);
+	
+	/**
+	 * @param i the position of the note among the held notes, sorted by value
+	 * @return the held note
+	 */
+	HeldNote getNote(int i) {
+		return store.getNote(store.heldStart(index) + i);
+	}
+	
+	int getPpq() {
+		return store.getPpq();
 	}
 	
 	@Override
 	public String toString() {
-		String ret = timestamp + "~" + asFraction(duration, ppq * 4) + ": ";
-
-		int track = -1;
-		
-		for (HeldNote n : heldNotes) {
-			if (n.getTrack() != track) {
-				if (track != -1) {
-					ret += "] ";
-				}
-				track = n.getTrack();
-				ret += "(" + track + ")[ ";
-			}
-			if (n.getStartTime() == timestamp) ret += "*" + n + "* ";
-			else ret += n + " ";
-		}
-		if (track != -1) ret += "]";
-		
-		return ret;
+		return ClusterRenderer.appendCluster(new StringBuilder(), this).toString();
 	}
 
 	@Override
 	public int getState() {
-		int state = 0;
-		for (HeldNote n : getNotes()) {
-			state |= 1 << ((KeySignature.getOffset(keySig) + n.getValue()) % 12);
-		}
-		return state;
+		int classes = store.getPitchClasses(index);
+		if (classes == 0) return 0;
+		
+		// Rotate the pitch classes by the key's offset
+		int offset = KeySignature.getOffset(getKeySignature());
+		return ((classes << offset) | (classes >>> (12 - offset))) & 0xFFF;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package notepatternanalyzer;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, ordered list of notes stored as indices into a track's note pool. Used for the
+ * sets of notes NoteTrack keeps while building clusters, so moving between timestamps copies a
+ * handful of ints instead of cloning lists of notes. The held and pressed keys of each cluster
+ * are kept as key bitmasks by {@link ClusterStore}, built once from these lists when the cluster
+ * is added.
+ * @author Alumina
+ */
+class NoteList {
+
+	private int[] notes = new int[16];
+	private int size = 0;
+
+	void add(int note) {
+		if (size == notes.length) notes = Arrays.copyOf(notes, size * 2);
+		notes[size++] = note;
+	}
+
+	/**
+	 * Removes a note, keeping the order of the rest
+	 * @param i the position of the note in the list
+	 */
+	void removeAt(int i) {
+		System.arraycopy(notes, i + 1, notes, i, size - i - 1);
+		size--;
+	}
+
+	/**
+	 * Overwrites this list with the contents of another
+	 * @param other the list to copy
+	 */
+	void copyFrom(NoteList other) {
+		if (notes.length < other.size) notes = new int[other.notes.length];
+		System.arraycopy(other.notes, 0, notes, 0, other.size);
+		size = other.size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int get(int i) {
+		return notes[i];
+	}
+}
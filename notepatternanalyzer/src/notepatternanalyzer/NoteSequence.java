@@ -1,10 +1,14 @@
 package notepatternanalyzer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 import hmm.HMMObservations;
 import notepatternanalyzer.KeySignature;
@@ -16,7 +20,6 @@ public class NoteSequence implements HMMObservations<NoteCluster> {
 
 
 	// Constants and variables
-	public static final String[] InterestingTags = new String[] {"Tempo","KeySig","TimeSig","On","Off"};
 	private int size = 0;
 	
 	// MetaData
@@ -24,112 +27,123 @@ public class NoteSequence implements HMMObservations<NoteCluster> {
 	private boolean probablyMusescore = true;
 	
 	// The real data is here
+	private SegmentTable segments;
 	private List<NoteTrack> tracks;
 	private NoteTrack main;
 	
 	/**
-	 * Constructs a sequence from a file
+	 * Constructs a sequence from a file, either a standard midi file or mf2t text
 	 * @param file the file to parse the data from
 	 * @throws IOException
 	 */
 	public NoteSequence(File file) throws IOException {
+		this(read(file));
+	}
+	
+	/**
+	 * Constructs a sequence from a file, parsing and building the tracks in parallel on the
+	 * common pool
+	 * @param file the file to parse the data from
+	 * @param parallel false to do everything sequentially
+	 * @throws IOException
+	 */
+	public NoteSequence(File file, boolean parallel) throws IOException {
+		this(file, parallel ? ForkJoinPool.commonPool() : null);
+	}
+	
+	/**
+	 * Constructs a sequence from a file, parsing and building the tracks on a shared pool
+	 * @param file the file to parse the data from
+	 * @param pool the pool to run on, or null to do everything sequentially
+	 * @throws IOException
+	 */
+	public NoteSequence(File file, ForkJoinPool pool) throws IOException {
+		build(read(file, pool), pool);
+	}
+	
+	/**
+	 * Constructs a sequence from already parsed events
+	 * @param data the parsed midi events
+	 */
+	NoteSequence(MidiData data) {
+		build(data, null);
+	}
+	
+	/**
+	 * Merges already clustered tracks into a sequence
+	 * @param tracks the tracks, from {@link #cluster(MidiData, ForkJoinPool)}
+	 */
+	NoteSequence(Tracks tracks) {
+		merge(tracks);
+	}
+	
+	private void build(MidiData data, ForkJoinPool pool) {
+		merge(cluster(data, pool));
+	}
+	
+	/**
+	 * The clustered tracks of a sequence before they're merged, the halfway point of building one
+	 */
+	static final class Tracks {
+		private final int ppq;
+		private final boolean probablyMusescore;
+		private final SegmentTable segments;
+		private final List<NoteTrack> tracks;
 		
-		// Get data in a readable format from the file
-		List<TreeMap<Integer, List<List<String>>>> trackList = parseMidiText(file);
-		tracks = new ArrayList<>();
-		
-		// Set the default values
-		int time = 0;
-		KeySignature keySig = KeySignature.C;
-		int tempo = 500000;
-		int bpb = 4;
-		int beatNote = 4;
+		private Tracks(int ppq, boolean probablyMusescore, SegmentTable segments, List<NoteTrack> tracks) {
+			this.ppq = ppq;
+			this.probablyMusescore = probablyMusescore;
+			this.segments = segments;
+			this.tracks = tracks;
+		}
+	}
+	
+	/**
+	 * Builds the metadata and the clusters of every track from parsed events
+	 * @param data the parsed midi events
+	 * @param pool the pool to build the tracks on, or null to build them sequentially
+	 * @return the tracks, ready to merge
+	 */
+	static Tracks cluster(MidiData data, ForkJoinPool pool) {
+		int ppq = data.getPpq();
+		boolean probablyMusescore = data.isMusescore();
+		SegmentTable segments = SegmentTable.build(data.getConductor(), ppq);
+		List<NoteTrack> tracks = new ArrayList<>();
 		
 		// Iterate through all the note tracks
-		for (int i = 1; i < trackList.size(); i++) {
-			
-			// Set up the track
-			NoteTrack currTrack = new NoteTrack(i, ppq, probablyMusescore);
-			tracks.add(currTrack);
-			
-			// Set up the event iterator
-			Iterator<Map.Entry<Integer, List<List<String>>>> eventItr = trackList.get(0).entrySet().iterator();
-			Map.Entry<Integer, List<List<String>>> eventEntry = eventItr.next();
-			int eventTime = eventEntry.getKey();
-			List<List<String>> nextEvents = eventEntry.getValue();
-			
-			// Iterate through each TreeMap sequentially
-			for (Iterator<Map.Entry<Integer, List<List<String>>>> entryItr = trackList.get(i).entrySet().iterator(); entryItr.hasNext();) {
-				Map.Entry<Integer, List<List<String>>> entry = entryItr.next();
-				
-				int timestamp = entry.getKey();
-		        List<List<String>> noteEvents = entry.getValue();
-		        
-		        // Update the events if the events changed
-		        if (timestamp >= eventTime) {
-		        	
-		        	// TODO if not equal then create a dummy event node. Edge case when time signature changes twice when no note are played
-		        	
-		        	// get the relevant events
-		        	for (List<String> event : nextEvents) {
-			        	switch (event.get(0)) {
-			        	case "Tempo":
-			        		tempo = Integer.parseInt(event.get(1));
-			        		break;
-			        	case "KeySig":
-			        		keySig = KeySignature.getKeySig(Integer.parseInt(event.get(1)));
-			        		break;
-			        	case "TimeSig":
-			        		String[] timeSigNumbers = event.get(1).split("/");
-			        		bpb = Integer.parseInt(timeSigNumbers[0]);
-			        		beatNote = Integer.parseInt(timeSigNumbers[1]);
-			        		break;
-			        	}
-		        	}
-		        	// Set the metadata for the track
-		        	currTrack.setTempo(tempo);
-		        	currTrack.setKeySignature(keySig);
-		        	currTrack.setBpb(bpb);
-		        	currTrack.setBeatNote(beatNote);
-		        	
-		        	while (timestamp >= eventTime && eventItr.hasNext()) {
-		        		eventEntry = eventItr.next();
-		    			eventTime = eventEntry.getKey();
-		    			nextEvents = eventEntry.getValue();
-		    		}
-		        }
-
-		        // Get the note data from the events
-	        	for (List<String> event : noteEvents) {
-		        	switch (event.get(0)) {
-		        	case "On":
-		        		currTrack.NoteOn(timestamp, Integer.parseInt(event.get(2).substring(2)), i);
-		        		break;
-		        	case "Off":
-		        		currTrack.NoteOff(timestamp, Integer.parseInt(event.get(2).substring(2)));
-		        		break;
-		        	default:
-		        		break;
-		        	}
-		        }
-		    }
-			
-			// wrap up last notes
-			currTrack.cluster();
+		List<MidiEvents> trackList = data.getTracks();
+		if (pool == null) {
+			for (int i = 0; i < trackList.size(); i++) {
+				tracks.add(buildTrack(i + 1, trackList.get(i), segments, probablyMusescore));
+			}
+		} else {
+			// Tracks only share the segment table, which never changes
+			List<ForkJoinTask<NoteTrack>> tasks = new ArrayList<>();
+			for (int i = 0; i < trackList.size(); i++) {
+				final int id = i + 1;
+				final MidiEvents notes = trackList.get(i);
+				tasks.add(pool.submit(() -> buildTrack(id, notes, segments, probablyMusescore)));
+			}
+			for (ForkJoinTask<NoteTrack> task : tasks) {
+				tracks.add(task.join());
+			}
 		}
-		
+		return new Tracks(ppq, probablyMusescore, segments, tracks);
+	}
+	
+	private void merge(Tracks built) {
+		this.ppq = built.ppq;
+		this.probablyMusescore = built.probablyMusescore;
+		this.segments = built.segments;
+		this.tracks = built.tracks;
 		
 		// combine all the tracks into the main track
-		if (tracks.size() == 1) {
+		if (tracks.isEmpty()) {
+			main = new NoteTrack(0, segments, probablyMusescore);
+		} else if (tracks.size() == 1) {
 			main = tracks.get(0);
 		} else {
-			for (int i = 1; i < tracks.size(); i++) {
-				if (i == 1) {
-					main = new NoteTrack(0, tracks.get(i - 1), tracks.get(i));
-				} else {
-					main = new NoteTrack(0, main, tracks.get(i));
-				}
-			}
+			main = new NoteTrack(0, tracks);
 		}
 		size = main.size();
 		
@@ -139,106 +153,91 @@ public class NoteSequence implements HMMObservations<NoteCluster> {
 	}
 	
 	/**
-	 * Parses a mf2t txt file and retrives the note data
-	 * @param file the file to parse
-	 * @return a list of maps in the form [timestamp]: {{Tag, args...}, ...}, each representing a track.
-	 * 		   The first entry will contain all events.
+	 * Reads the events from a file, picking the parser based on the contents
+	 * @param file a .mid file or mf2t text
+	 * @return the parsed events
 	 * @throws IOException
 	 */
-	public List<TreeMap<Integer, List<List<String>>>> parseMidiText(File file) throws IOException {
-		// Parse the file for only the lines that matter
-		FileReader fr = new FileReader(file);
-		BufferedReader br = new BufferedReader(fr);
-		
-		// This data structure is weird, but I think it will work fine
-		List<TreeMap<Integer, List<List<String>>>> trackList = new ArrayList<>();
-		TreeMap<Integer, List<List<String>>> eventList = new TreeMap<>();
-		TreeMap<Integer, List<List<String>>> currTrackNotes = new TreeMap<>();
-		trackList.add(eventList);
+	static MidiData read(File file) throws IOException {
+		return read(file, null);
+	}
+	
+	/**
+	 * Reads the events from a file, splitting it into tracks and parsing them in parallel
+	 * @param file a .mid file or mf2t text
+	 * @param pool the pool to parse on, or null to parse sequentially
+	 * @return the parsed events
+	 * @throws IOException
+	 */
+	static MidiData read(File file, ForkJoinPool pool) throws IOException {
+		ByteBuffer buf = MappedMidiTextParser.map(file);
+		final boolean smf = MidiFileReader.isMidiFile(buf);
+		if (pool == null) {
+			return smf ? MidiFileReader.parse(buf) : MappedMidiTextParser.parse(buf);
+		}
 		
-		// Read the lines one by one
-		boolean notesInTrack = false;
-		String line;
-		while ((line = br.readLine()) != null) {
-			String[] parts = line.split(" ");
-			if (parts.length > 0) {
-			    try {
-			    	// Check for timestamped events
-			        int timestamp = Integer.parseInt(parts[0]);
-			        
-			        // Capture interesting timestamped events
-			        if (Arrays.asList(InterestingTags).contains(parts[1])) {
-
-			        	// Initialize list to existing list, or initialize new list
-			        	List<List<String>> events;
-			        	
-			        	// Parse the event tags into a list
-			        	List<String> eventTags = new ArrayList<>();
-			        	for (int i = 1; i < parts.length; i++) {
-			        		eventTags.add(parts[i]);
-			        	}
-			        	
-			        	// Capture note events into note track
-			        	if (parts[1].equals("On") || parts[1].equals("Off")) {
-			        		if (!currTrackNotes.containsKey(timestamp)) {
-				        		events = new LinkedList<>();
-				        	} else {
-				        		events = currTrackNotes.get(timestamp);
-				        	}
-				        	
-				        	// Simplify the syntax
-				        	if (parts[4].equals("v=0")) eventTags.set(0, "Off");
-				        	
-				        	events.add(eventTags);
-				        	currTrackNotes.put(timestamp, events);
-				        	
-				        	notesInTrack = true;
-				        } else {
-				        	if (!eventList.containsKey(timestamp)) {
-				        		events = new LinkedList<>();
-				        	} else {
-				        		events = eventList.get(timestamp);
-				        	}
-				        	
-				        	events.add(eventTags);
-				        	eventList.put(timestamp, events);
-				        	
-				        }
-			        	
-			        	// Part of the Musescore detection
-			        	if (parts[1].equals("Off")) this.probablyMusescore = false;
-			        }
-			    } catch(NumberFormatException e) {
-			    	
-			    	// Catch non-timestamped events
-			    	if (parts[0].equals("MFile")) {
-			    		// Catch file header
-			    		try {
-			    			
-			    			// Capture the ppq value
-			    			this.ppq = Integer.parseInt(parts[3]);
-			    		} catch (NumberFormatException e2) {
-			    			continue;
-			    		}
-			    	} else if (parts[0].equals("TrkEnd") && notesInTrack) {
-			    		// Catch the end of track
-			    		// Push the current track and start a new one
-			    		//System.out.println("Read " + currTrackNotes.size() + " notes into track " + trackList.size());
-			    		trackList.add(currTrackNotes);
-			    		currTrackNotes = new TreeMap<>();
-			    		notesInTrack = false;
-			    	}
-			    }
-			}
+		// The first slice is the header, the rest are tracks
+		List<ByteBuffer> slices = smf ? MidiFileReader.split(buf) : MappedMidiTextParser.split(buf);
+		List<Future<MidiData>> futures = new ArrayList<>();
+		for (final ByteBuffer slice : slices) {
+			futures.add(pool.submit(() -> smf ? MidiFileReader.read(slice) : MappedMidiTextParser.read(slice)));
 		}
-		//System.out.println(eventList.size() + " events total");
 		
-		// Another point of musescore detection
-		if (this.ppq != 480) this.probablyMusescore = false;
+		// Stitch them back together in file order
+		MidiData data = join(futures.get(0));
+		for (int i = 1; i < futures.size(); i++) {
+			data.append(join(futures.get(i)));
+		}
+		return data.finish();
+	}
+	
+	/**
+	 * Waits for a task, unwrapping whatever it threw
+	 * @param future the task
+	 * @return the result of the task
+	 * @throws IOException if the task threw one
+	 */
+	private static <T> T join(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while parsing");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	/**
+	 * Feeds the events of one track into a new NoteTrack
+	 * @param id the track number
+	 * @param notes the note events of the track
+	 * @param segments the metadata of the sequence
+	 * @param probablyMusescore whether the durations need fixing up
+	 * @return the built track
+	 */
+	private static NoteTrack buildTrack(int id, MidiEvents notes, SegmentTable segments, boolean probablyMusescore) {
+		NoteTrack currTrack = new NoteTrack(id, segments, probablyMusescore);
 		
-		br.close();
+		// Get the note data from the events, tempo and such are looked up in the segments
+		for (int n = 0; n < notes.size(); n++) {
+			switch (notes.getType(n)) {
+			case MidiEvents.ON:
+				currTrack.NoteOn(notes.getTick(n), notes.getNote(n), id);
+				break;
+			case MidiEvents.OFF:
+				currTrack.NoteOff(notes.getTick(n), notes.getNote(n));
+				break;
+			}
+		}
 		
-		return trackList;
+		// wrap up last notes
+		currTrack.cluster();
+		return currTrack;
 	}
 	
 	/**
@@ -249,6 +248,23 @@ public class NoteSequence implements HMMObservations<NoteCluster> {
 		return size;
 	}
 	
+	/**
+	 * Random access to the clusters of the merged track
+	 * @param i the index of the cluster
+	 * @return the cluster
+	 */
+	public NoteCluster get(int i) {
+		return main.get(i);
+	}
+	
+	/**
+	 * The tempo, key and meter changes of the sequence, which also convert ticks to real time
+	 * @return the segment table
+	 */
+	SegmentTable getSegments() {
+		return segments;
+	}
+	
 	/**
 	 * Accessor for pulses per quarter
 	 * @return ppq
@@ -16,49 +16,45 @@ public class NoteTrack implements Iterable<NoteCluster> {
 
 	// Constants and variables
 	private int id;
-	private int numNotes = 0, size = 0;
-	private NoteClusterNode root;
+	private int numNotes = 0;
+	private ClusterStore clusters;
 	
 	// Temporary variables mid generation
-	private int currTime, currTempo, currBpb, currBeatNote;
-	private NoteClusterNode curr, prev;
-	private KeySignature currKeySig;
+	private int currTime;
+	private int curr = -1;	// the cluster being built
 	
 	// MetaData
-	private int ppq = 96;	// Seemingly the default value, but musescore's is 480
+	private SegmentTable segments;	// shared by every track of the sequence
 	private boolean probablyMusescore = false;
 	
 	private HeldNote[] openNotes = new HeldNote[88];	// 88 key keyboard assumed
 	private static int FIRST_NOTE = 21;
-	private List<HeldNote> notes, prevNotes, currNotes, pressedNotes;
+	private List<HeldNote> notes;
+	private NoteList prevNotes, currNotes, pressedNotes;	// indices into the cluster store's note pool
 	
 	/**
 	 * Simple constructors are nice
-	 * @param ppq - pulses per quarter note
+	 * @param segments - tempo, key and meter of the sequence
 	 */
-	public NoteTrack(int id, int ppq) {
-		this(id, ppq, false);
+	NoteTrack(int id, SegmentTable segments) {
+		this(id, segments, false);
 	}
 	
 	/**
 	 * Less simple constructor, but still nice
-	 * @param ppq - pulses per quarter note
+	 * @param segments - tempo, key and meter of the sequence
 	 * @param ms - false if not musescore
 	 */
-	public NoteTrack(int id, int ppq, boolean ms) {
+	NoteTrack(int id, SegmentTable segments, boolean ms) {
 		this.id = id;
 		this.currTime = 0;
-		this.prev = null;
-		this.notes = new LinkedList<>();
-		this.currNotes = new ArrayList<>();
-		this.prevNotes = new ArrayList<>();
-		this.pressedNotes = new ArrayList<>();
-		this.currKeySig = KeySignature.C;
-		this.currTempo = 500000;
-		this.currBpb = 4;
-		this.currBeatNote = 4;
-		this.ppq = ppq;
+		this.notes = new ArrayList<>();
+		this.currNotes = new NoteList();
+		this.prevNotes = new NoteList();
+		this.pressedNotes = new NoteList();
+		this.segments = segments;
 		this.probablyMusescore = ms;
+		this.clusters = new ClusterStore(segments);
 	}
 	
 	/**
@@ -67,84 +63,52 @@ public class NoteTrack implements Iterable<NoteCluster> {
 	 * @param t2
 	 */
 	public NoteTrack(int id, NoteTrack t1, NoteTrack t2) {
-		this.id = id;
-		this.currTime = 0;
-		this.notes = new LinkedList<>();
-		this.currNotes = new ArrayList<>();
-		this.prevNotes = new ArrayList<>();
-		this.pressedNotes = new ArrayList<>();
-		this.currKeySig = KeySignature.C;
-		this.currTempo = 500000;
-		this.currBpb = 4;
-		this.currBeatNote = 4;
-		this.ppq = t1.getPpq();
-		this.probablyMusescore = t1.isMusescore();
+		this(id, Arrays.asList(t1, t2));
+	}
+	
+	/**
+	 * Merges any number of tracks into one in a single pass. The clusters of all the tracks
+	 * are pulled through a priority queue by timestamp, so every cluster is visited once no
+	 * matter how many tracks there are.
+	 * @param id
+	 * @param tracks the tracks to merge, earlier tracks win when two tracks hold the same note
+	 */
+	public NoteTrack(int id, List<NoteTrack> tracks) {
+		this(id, tracks.get(0).segments, tracks.get(0).isMusescore());
 		
 		// intitialize iteration
-		Iterator<NoteCluster> itr1 = t1.iterator();
-		Iterator<NoteCluster> itr2 = t2.iterator();
-		
-		NoteCluster c1 = null;
-		NoteCluster c2 = null;
-		boolean take1 = true;
-		boolean take2 = true;
+		PriorityQueue<MergeHead> heads = new PriorityQueue<>();
+		for (int i = 0; i < tracks.size(); i++) {
+			Iterator<NoteCluster> itr = tracks.get(i).iterator();
+			if (itr.hasNext()) heads.add(new MergeHead(i, itr));
+		}
+		List<MergeHead> taken = new ArrayList<>(tracks.size());
 		
 		// iterate while iterable
-		while (itr1.hasNext() || itr2.hasNext()) {
+		while (!heads.isEmpty()) {
 			
-			// iterate over already taken clusters
-			if (itr1.hasNext() && take1) {
-				c1 = itr1.next();
-				take1 = false;
-			}
-			if (itr2.hasNext() && take2) {
-				c2 = itr2.next();
-				take2 = false;
+			// take every cluster starting at the earliest timestamp
+			int timestamp = heads.peek().cluster.getTimeStamp();
+			while (!heads.isEmpty() && heads.peek().cluster.getTimeStamp() == timestamp) {
+				taken.add(heads.poll());
 			}
 			
-			// get cluster data from t1
-			if (c1.getTimeStamp() <= c2.getTimeStamp()) {
-				// metadata
-				this.currKeySig = c1.getKeySignature();
-				this.currTempo = c1.getTempo();
-				this.currBpb = c1.getBpb();
-				this.currBeatNote = c1.getBeatNote();
-				
-				// set the notes
-				for (HeldNote n : c1.getReleasedNotes()) {
+			for (MergeHead head : taken) {
+				// set the notes, the metadata comes from the shared segments
+				for (HeldNote n : head.cluster.getReleasedNotes()) {
 					this.NoteOff(n.getEndTime(), n.getRawValue());
 				}
-				
-				// mark as available to take again
-				take1 = true;
 			}
 			
-			if (c1.getTimeStamp() >= c2.getTimeStamp()) {
-				// metadata
-				this.currKeySig = c2.getKeySignature();
-				this.currTempo = c2.getTempo();
-				this.currBpb = c2.getBpb();
-				this.currBeatNote = c2.getBeatNote();
-				
-				// set the notes
-				for (HeldNote n : c2.getReleasedNotes()) {
-					this.NoteOff(n.getEndTime(), n.getRawValue());
-				}
-				
-				// mark as available to take again
-				take2 = true;
-			}
-			
-			if (take1) {
-				for (HeldNote n : c1.getNotes()) {
-					this.NoteOn(n.getStartTime(), n.getRawValue(), true, n.getTrack());
-				}
-			}
-			if (take2) {
-				for (HeldNote n : c2.getNotes()) {
+			for (MergeHead head : taken) {
+				for (HeldNote n : head.cluster.getNotes()) {
 					this.NoteOn(n.getStartTime(), n.getRawValue(), true, n.getTrack());
 				}
+				
+				// put the track back in line
+				if (head.advance()) heads.add(head);
 			}
+			taken.clear();
 		}
 		
 		// wrap up
@@ -156,7 +120,16 @@ public class NoteTrack implements Iterable<NoteCluster> {
 	 * @return the size
 	 */
 	public int size() {
-		return size;
+		return clusters.size();
+	}
+	
+	/**
+	 * Random access to the clusters
+	 * @param i the index of the cluster
+	 * @return the cluster
+	 */
+	public NoteCluster get(int i) {
+		return clusters.get(i);
 	}
 	
 	/**
@@ -164,7 +137,7 @@ public class NoteTrack implements Iterable<NoteCluster> {
 	 * @return ppq
 	 */
 	public int getPpq() {
-		return this.ppq;
+		return segments.getPpq();
 	}
 	
 	public int getId() {
@@ -179,22 +152,6 @@ public class NoteTrack implements Iterable<NoteCluster> {
 		return this.probablyMusescore;
 	}
 	
-	public void setKeySignature(KeySignature keySig) {
-		this.currKeySig = keySig;
-	}
-	
-	public void setTempo(int tempo) {
-		this.currTempo = tempo;
-	}
-	
-	public void setBpb(int bpb) {
-		this.currBpb = bpb;
-	}
-	
-	public void setBeatNote(int beatNote) {
-		this.currBeatNote = beatNote;
-	}
-	
 	/**
 	 * Set a note's value to on (not safe)
 	 * @param timestamp
@@ -209,20 +166,11 @@ public class NoteTrack implements Iterable<NoteCluster> {
 			
 			// If new timestamp, register previous timestamp as a note cluster
 			if (timestamp > currTime) {
-				curr = new NoteClusterNode(new NoteCluster(copyNotes(prevNotes), copyNotes(pressedNotes), currTime, currKeySig, currTempo, currBpb, currBeatNote, ppq), prev, null);
-				size++;
-				if (prev != null) {
-					prev.setNext(curr);
-				} else {
-					root = curr;
-				}
-				
+				curr = clusters.add(prevNotes, pressedNotes, currTime);
 				
 				// Update current
-				curr.getNotes().setDuration(timestamp - currTime);
-				prev = curr;
-				prevNotes = currNotes;
-				currNotes = copyNotes(currNotes);
+				clusters.setDuration(curr, timestamp - currTime);
+				prevNotes.copyFrom(currNotes);
 				currTime = timestamp;
 			}
 			
@@ -232,9 +180,10 @@ public class NoteTrack implements Iterable<NoteCluster> {
 			}
 			
 			// Add the note
-			openNotes[value - FIRST_NOTE] = new HeldNote(timestamp, value, currKeySig, currTempo, currBpb, currBeatNote, ppq, track);
-			currNotes.add(openNotes[value - FIRST_NOTE]);
-			pressedNotes.add(openNotes[value - FIRST_NOTE]);
+			openNotes[value - FIRST_NOTE] = new HeldNote(timestamp, value, segments, track);
+			int note = clusters.register(openNotes[value - FIRST_NOTE]);
+			currNotes.add(note);
+			pressedNotes.add(note);
 		}
 	}
 	
@@ -246,17 +195,8 @@ public class NoteTrack implements Iterable<NoteCluster> {
 	public void NoteOff(int timestamp, int value) {
 		if (openNotes[value - FIRST_NOTE] != null) {
 			if (timestamp > currTime) {
-				if (prev != null) {
-					curr = new NoteClusterNode(new NoteCluster(copyNotes(prevNotes), copyNotes(pressedNotes), currTime, currKeySig, currTempo, currBpb, currBeatNote, ppq), prev, null);
-					prev.setNext(curr);
-				} else {
-					curr = new NoteClusterNode(new NoteCluster(copyNotes(prevNotes), copyNotes(pressedNotes), currTime, currKeySig, currTempo, currBpb, currBeatNote, ppq), prev, null);
-					root = curr;
-				}
-
-				size++;
-				prevNotes = currNotes;
-				currNotes = copyNotes(currNotes);
+				curr = clusters.add(prevNotes, pressedNotes, currTime);
+				prevNotes.copyFrom(currNotes);
 				pressedNotes.clear();
 			}
 			
@@ -278,13 +218,12 @@ public class NoteTrack implements Iterable<NoteCluster> {
 			
 			// Close off the note
 			openNotes[value - FIRST_NOTE] = null;
-			currNotes.remove(removedNote);
+			removeNote(currNotes, value);
 			
 			if (timestamp > currTime) {
 				
 				// Update current
-				curr.getNotes().setDuration((removedNote.getStartTime() + removedNote.getDuration()) - currTime);
-				prev = curr;
+				clusters.setDuration(curr, (removedNote.getStartTime() + removedNote.getDuration()) - currTime);
 				currTime = removedNote.getStartTime() + removedNote.getDuration();
 				pressedNotes.clear();
 			}
@@ -292,24 +231,26 @@ public class NoteTrack implements Iterable<NoteCluster> {
 	}
 	
 	public void cluster() {
-		if (curr != null) {
-			size++;
-			curr = new NoteClusterNode(new NoteCluster(copyNotes(prevNotes), copyNotes(pressedNotes), currTime, currKeySig, currTempo, currBpb, currBeatNote, ppq), prev, null);
-			prev.setNext(curr);
-			curr.getNotes().setDuration(0);
-			prev = curr;
-			prevNotes = currNotes;
-			curr = null;
-			currNotes = null;
+		if (curr != -1) {
+			curr = clusters.add(prevNotes, pressedNotes, currTime);
+			clusters.setDuration(curr, 0);
+			prevNotes.copyFrom(currNotes);
+			curr = -1;
 		}
 	}
 	
-	private static List<HeldNote> copyNotes(List<HeldNote> notes) {
-		List<HeldNote> newNotes = new ArrayList<>();
-		for (HeldNote note : notes) {
-			newNotes.add(note);
+	/**
+	 * Removes the first note with the given value (HeldNotes are equal by value)
+	 * @param list the list to remove from
+	 * @param value the raw value of the note
+	 */
+	private void removeNote(NoteList list, int value) {
+		for (int i = 0; i < list.size(); i++) {
+			if (clusters.getPooled(list.get(i)).getRawValue() == value) {
+				list.removeAt(i);
+				return;
+			}
 		}
-		return newNotes;
 	}
 	
 	public String toString() {
@@ -321,58 +262,34 @@ public class NoteTrack implements Iterable<NoteCluster> {
 	}
 
 	/**
-	 * Node that holds note data
-	 * @author Alumina
+	 * The next cluster of one of the tracks being merged
 	 */
-	private class NoteClusterNode {
-		NoteCluster data;
-		NoteClusterNode prev;
-		NoteClusterNode next;
+	private static class MergeHead implements Comparable<MergeHead> {
+		final int order;
+		final Iterator<NoteCluster> itr;
+		NoteCluster cluster;
 		
-		public NoteClusterNode(NoteCluster data, NoteClusterNode prev, NoteClusterNode next) {
-			this.data = data;
-			this.prev = prev;
-			this.next = next;
+		MergeHead(int order, Iterator<NoteCluster> itr) {
+			this.order = order;
+			this.itr = itr;
+			this.cluster = itr.next();
 		}
 		
-		public NoteClusterNode getNext() {
-			return next;
+		boolean advance() {
+			if (!itr.hasNext()) return false;
+			cluster = itr.next();
+			return true;
 		}
 		
-		public NoteCluster getNotes() {
-			return data;
-		}
-		
-		public void setNext(NoteClusterNode next) {
-			this.next = next;
+		@Override
+		public int compareTo(MergeHead o) {
+			int cmp = Integer.compare(cluster.getTimeStamp(), o.cluster.getTimeStamp());
+			return cmp != 0 ? cmp : Integer.compare(order, o.order);
 		}
 	}
 	
 	@Override
 	public Iterator<NoteCluster> iterator() {
-		return new NoteIterator(root);
-	}
-
-	/**
-	 * Iterator class so foreach can be used
-	 * @author Alumina
-	 */
-	class NoteIterator implements Iterator<NoteCluster> {
-
-		private NoteClusterNode curr;
-
-		public NoteIterator(NoteClusterNode begin) {
-			this.curr = begin;
-		}
-		
-		public boolean hasNext() {
-			return curr != null;
-		}
-
-		public NoteCluster next() {
-			NoteCluster ret = curr.getNotes();
-			curr = curr.getNext();
-			return ret;
-		}
+		return clusters.iterator();
 	}
 }
\ No newline at end of file
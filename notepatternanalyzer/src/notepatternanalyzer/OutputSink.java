@@ -0,0 +1,26 @@
+package notepatternanalyzer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere the lines the analyzer prints end up, like the console or an output file
+ * @author Alumina
+ */
+interface OutputSink extends Closeable {
+
+	/**
+	 * A sink that throws everything away, for output that's turned off
+	 */
+	OutputSink NONE = line -> {};
+
+	void println(String line) throws IOException;
+
+	default void flush() throws IOException {
+	}
+
+	@Override
+	default void close() throws IOException {
+		flush();
+	}
+}
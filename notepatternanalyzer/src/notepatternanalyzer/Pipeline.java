@@ -0,0 +1,302 @@
+package notepatternanalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs items through a chain of stages, each on its own threads, joined by bounded queues. A
+ * stage that falls behind fills up its queue and the stage feeding it blocks, all the way back to
+ * {@link #submit(Object)}, so nothing piles up in memory and the slowest stage sets the pace while
+ * the others keep working on the items behind it.
+ *
+ * Every stage keeps its queue depth, how long items waited in its queue and how long it spent on
+ * them, see {@link #getStats()}. An item whose step throws is dropped and handed to the error
+ * handler, and the rest carry on. That goes for Errors like StackOverflowError too, since a
+ * stage whose workers all died would never drain its queue again and everything before it would
+ * block for good.
+ *
+ * Add the stages, start, submit every item, then finish to wait for them to get through.
+ * @author Alumina
+ */
+final class Pipeline<T> {
+
+	/**
+	 * One stage's work on an item, usually filling in a field for the next stage
+	 */
+	interface Step<T> {
+		void run(T item) throws Exception;
+	}
+
+	/**
+	 * Told about items a step threw on, Errors included
+	 */
+	interface ErrorHandler<T> {
+		void failed(T item, String stage, Throwable e);
+	}
+
+	// Marks the end of the items, one per worker of a stage
+	private static final Object END = new Object();
+
+	private final List<Stage<T>> stages = new ArrayList<>();
+	private final ErrorHandler<T> onError;
+	private CountDownLatch done;
+	private boolean finished = false;
+	private final AtomicReference<Throwable> handlerError = new AtomicReference<>();	// first throw out of onError
+
+	/**
+	 * @param onError told about every item a step throws on, from the worker thread
+	 */
+	Pipeline(ErrorHandler<T> onError) {
+		this.onError = onError;
+	}
+
+	/**
+	 * Adds a stage after the ones already added
+	 * @param name what to call the stage in the stats
+	 * @param threads how many items the stage works on at once
+	 * @param capacity how many items can wait for the stage before the one before it blocks
+	 * @param step the work
+	 * @return this
+	 */
+	Pipeline<T> addStage(String name, int threads, int capacity, Step<T> step) {
+		if (done != null) throw new IllegalStateException("Pipeline already started");
+		stages.add(new Stage<>(name, threads, capacity, step));
+		return this;
+	}
+
+	/**
+	 * Starts the workers of every stage
+	 * @return this
+	 */
+	Pipeline<T> start() {
+		if (stages.isEmpty()) throw new IllegalStateException("Pipeline has no stages");
+		if (done != null) throw new IllegalStateException("Pipeline already started");
+		int workers = 0;
+		for (Stage<T> stage : stages) workers += stage.threads;
+		done = new CountDownLatch(workers);
+
+		for (int k = 0; k < stages.size(); k++) {
+			final int index = k;
+			Stage<T> stage = stages.get(k);
+			AtomicInteger id = new AtomicInteger();
+			stage.executor = Executors.newFixedThreadPool(stage.threads, r -> {
+				Thread thread = new Thread(r, "Pipeline " + stage.name + " " + id.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			for (int i = 0; i < stage.threads; i++) stage.executor.execute(() -> work(index));
+		}
+		return this;
+	}
+
+	/**
+	 * Feeds an item to the first stage, waiting if its queue is full
+	 * @param item the item
+	 * @throws InterruptedException
+	 */
+	void submit(T item) throws InterruptedException {
+		if (done == null) throw new IllegalStateException("Pipeline not started");
+		if (finished) throw new IllegalStateException("Pipeline already finished");
+		put(stages.get(0), item);
+	}
+
+	/**
+	 * Waits for every submitted item to get through every stage, then stops the workers
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if the error handler itself threw
+	 */
+	void finish() throws InterruptedException {
+		if (done == null) throw new IllegalStateException("Pipeline not started");
+		if (!finished) {
+			finished = true;
+			Stage<T> first = stages.get(0);
+			for (int i = 0; i < first.threads; i++) first.queue.put(END);
+		}
+		done.await();
+		for (Stage<T> stage : stages) stage.executor.shutdown();
+		if (handlerError.get() != null) throw new IllegalStateException("Error handler failed", handlerError.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work(int index) {
+		Stage<T> stage = stages.get(index);
+		Stage<T> next = index + 1 < stages.size() ? stages.get(index + 1) : null;
+		try {
+			while (true) {
+				Object taken = stage.queue.take();
+				if (taken == END) break;
+				Queued<T> queued = (Queued<T>) taken;
+
+				long start = System.nanoTime();
+				stage.waitNanos.add(start - queued.time);
+				try {
+					stage.step.run(queued.item);
+				} catch (Throwable e) {
+					stage.busyNanos.add(System.nanoTime() - start);
+					stage.failed.increment();
+					try {
+						onError.failed(queued.item, stage.name, e);
+					} catch (Throwable handler) {
+						handlerError.compareAndSet(null, handler);
+					}
+					continue;
+				}
+				stage.busyNanos.add(System.nanoTime() - start);
+				stage.processed.increment();
+				if (next != null) put(next, queued.item);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// The last worker out tells the next stage there's nothing more coming
+			if (stage.running.decrementAndGet() == 0 && next != null) {
+				try {
+					for (int i = 0; i < next.threads; i++) next.queue.put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			done.countDown();
+		}
+	}
+
+	private void put(Stage<T> stage, T item) throws InterruptedException {
+		stage.queue.put(new Queued<>(item, System.nanoTime()));
+		stage.peakDepth.accumulate(stage.queue.size());
+	}
+
+	/**
+	 * @return a snapshot of every stage's numbers, in pipeline order
+	 */
+	List<Stats> getStats() {
+		List<Stats> stats = new ArrayList<>();
+		for (Stage<T> stage : stages) stats.add(new Stats(stage));
+		return stats;
+	}
+
+	/**
+	 * @return a table of the stats
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-8s %8s %6s %6s %10s %8s %12s %12s", "stage", "threads", "depth", "peak", "processed", "failed", "wait ms", "busy ms"));
+		for (Stats s : getStats()) {
+			sb.append(String.format("%n%-8s %8d %6d %6d %10d %8d %12.3f %12.3f",
+					s.getName(), s.getThreads(), s.getQueueDepth(), s.getPeakDepth(), s.getProcessed(), s.getFailed(), s.getAverageWaitMs(), s.getAverageBusyMs()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * An item and when it was queued
+	 */
+	private static final class Queued<T> {
+		private final T item;
+		private final long time;
+
+		private Queued(T item, long time) {
+			this.item = item;
+			this.time = time;
+		}
+	}
+
+	private static final class Stage<T> {
+		private final String name;
+		private final int threads;
+		private final int capacity;
+		private final Step<T> step;
+		private final BlockingQueue<Object> queue;
+		private final AtomicInteger running;
+		private ExecutorService executor;
+
+		private final LongAdder processed = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder busyNanos = new LongAdder();
+		private final LongAccumulator peakDepth = new LongAccumulator(Math::max, 0);
+
+		private Stage(String name, int threads, int capacity, Step<T> step) {
+			if (threads < 1 || capacity < 1) throw new IllegalArgumentException("Stage " + name + " needs a thread and a queue");
+			this.name = name;
+			this.threads = threads;
+			this.capacity = capacity;
+			this.step = step;
+			this.queue = new ArrayBlockingQueue<>(capacity);
+			this.running = new AtomicInteger(threads);
+		}
+	}
+
+	/**
+	 * A snapshot of a stage. Wait is the time from an item being queued to a worker taking it,
+	 * busy is the time the step took.
+	 */
+	static final class Stats {
+		private final String name;
+		private final int threads;
+		private final int capacity;
+		private final int queueDepth;
+		private final long peakDepth;
+		private final long processed;
+		private final long failed;
+		private final long waitNanos;
+		private final long busyNanos;
+
+		private Stats(Stage<?> stage) {
+			this.name = stage.name;
+			this.threads = stage.threads;
+			this.capacity = stage.capacity;
+			this.queueDepth = stage.queue.size();
+			this.peakDepth = stage.peakDepth.get();
+			this.processed = stage.processed.sum();
+			this.failed = stage.failed.sum();
+			this.waitNanos = stage.waitNanos.sum();
+			this.busyNanos = stage.busyNanos.sum();
+		}
+
+		String getName() {
+			return name;
+		}
+
+		int getThreads() {
+			return threads;
+		}
+
+		int getCapacity() {
+			return capacity;
+		}
+
+		int getQueueDepth() {
+			return queueDepth;
+		}
+
+		long getPeakDepth() {
+			return peakDepth;
+		}
+
+		long getProcessed() {
+			return processed;
+		}
+
+		long getFailed() {
+			return failed;
+		}
+
+		double getAverageWaitMs() {
+			return waitNanos / 1e6 / Math.max(1, processed + failed);
+		}
+
+		double getAverageBusyMs() {
+			return busyNanos / 1e6 / Math.max(1, processed + failed);
+		}
+	}
+}
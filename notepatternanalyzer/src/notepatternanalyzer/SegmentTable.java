@@ -0,0 +1,225 @@
+package notepatternanalyzer;
+
+import java.util.Arrays;
+
+/**
+ * The tempo, key signature and time signature of a sequence as a list of segments, one per tick
+ * where any of them changes. Built once per sequence from the conductor events and never changed
+ * after, so every track (and every thread building one) can share it. Notes and clusters just
+ * keep the index of the segment they start in.
+ *
+ * The elapsed time at the start of every segment is worked out up front too, so converting between
+ * ticks and wall clock time is the same binary search plus a multiply, however many tempo events
+ * the file has.
+ * @author Alumina
+ */
+class SegmentTable {
+
+	private static final KeySignature[] KEY_SIGNATURES = KeySignature.values();
+
+	// Segment columns
+	private int[] ticks;
+	private int[] tempos;		// microseconds per quarter
+	private byte[] keySigs;		// ordinal, -1 for an unknown key
+	private int[] timeSigs;		// packed as bpb << 16 | beatNote
+	private long[] elapsed;		// microseconds * ppq at the start of the segment, exact
+	private int size = 0;
+
+	private final int ppq;
+
+	private SegmentTable(int capacity, int ppq) {
+		this.ticks = new int[capacity];
+		this.tempos = new int[capacity];
+		this.keySigs = new byte[capacity];
+		this.timeSigs = new int[capacity];
+		this.ppq = ppq;
+	}
+
+	/**
+	 * Builds the table from the conductor events. The first segment starts at tick 0 with the
+	 * defaults (C, 120 bpm, 4/4), and events on the same tick all go into one segment.
+	 * @param conductor the sorted meta events of the sequence
+	 * @param ppq pulses per quarter note of the sequence
+	 * @return the table
+	 */
+	static SegmentTable build(MidiEvents conductor, int ppq) {
+		SegmentTable table = new SegmentTable(conductor.size() + 1, ppq);
+
+		// Set the default values
+		int keySig = KeySignature.C.ordinal();
+		int tempo = 500000;
+		int timeSig = MidiEvents.timeSig(4, 4);
+		table.add(0, tempo, keySig, timeSig);
+
+		for (int e = 0; e < conductor.size();) {
+			int tick = conductor.getTick(e);
+			for (int end = conductor.groupEnd(e); e < end; e++) {
+				switch (conductor.getType(e)) {
+				case MidiEvents.TEMPO:
+					tempo = conductor.getValue(e);
+					break;
+				case MidiEvents.KEY_SIG:
+					KeySignature ks = KeySignature.getKeySig(conductor.getValue(e));
+					keySig = ks == null ? -1 : ks.ordinal();
+					break;
+				case MidiEvents.TIME_SIG:
+					timeSig = conductor.getValue(e);
+					break;
+				}
+			}
+			table.add(tick, tempo, keySig, timeSig);
+		}
+		table.trim();
+		return table;
+	}
+
+	private void add(int tick, int tempo, int keySig, int timeSig) {
+		int i = size;
+
+		// A change at the start of the last segment replaces it
+		if (size > 0 && ticks[size - 1] == tick) {
+			i = size - 1;
+		} else if (size > 0 && tempos[size - 1] == tempo && keySigs[size - 1] == keySig && timeSigs[size - 1] == timeSig) {
+			return;	// nothing really changed
+		} else {
+			size++;
+		}
+		ticks[i] = tick;
+		tempos[i] = tempo;
+		keySigs[i] = (byte) keySig;
+		timeSigs[i] = timeSig;
+	}
+
+	private void trim() {
+		ticks = Arrays.copyOf(ticks, size);
+		tempos = Arrays.copyOf(tempos, size);
+		keySigs = Arrays.copyOf(keySigs, size);
+		timeSigs = Arrays.copyOf(timeSigs, size);
+
+		// Segments can only be replaced while building, so the times wait until the end
+		elapsed = new long[size];
+		for (int i = 1; i < size; i++) {
+			elapsed[i] = elapsed[i - 1] + (long) (ticks[i] - ticks[i - 1]) * tempos[i - 1];
+		}
+	}
+
+	/**
+	 * Finds the segment a tick falls in with a binary search
+	 * @param tick the timestamp
+	 * @return the index of the last segment starting at or before the tick
+	 */
+	int segmentAt(int tick) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (ticks[mid] <= tick) low = mid;
+			else high = mid - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the segment a time falls in
+	 * @param scaled microseconds * ppq
+	 * @return the index of the last segment starting at or before the time
+	 */
+	private int segmentAtTime(long scaled) {
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (elapsed[mid] <= scaled) low = mid;
+			else high = mid - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Converts a tick to the time since the start of the sequence
+	 * @param tick the timestamp
+	 * @return microseconds, rounded down
+	 */
+	long toMicros(int tick) {
+		return toMicros(tick, segmentAt(tick));
+	}
+
+	private long toMicros(int tick, int segment) {
+		return (elapsed[segment] + (long) (tick - ticks[segment]) * tempos[segment]) / ppq;
+	}
+
+	/**
+	 * Converts a time since the start of the sequence to a tick
+	 * @param micros the time in microseconds
+	 * @return the tick sounding at that time
+	 */
+	int toTick(long micros) {
+		long scaled = micros * ppq;
+		int segment = segmentAtTime(scaled);
+		return ticks[segment] + (int) ((scaled - elapsed[segment]) / tempos[segment]);
+	}
+
+	/**
+	 * Converts a batch of ticks. Runs of ascending ticks, like the notes of a track, mostly stay
+	 * in the same segment and skip the search.
+	 * @param ticks the timestamps
+	 * @param from the first tick to convert
+	 * @param to the end of the ticks to convert
+	 * @param micros where to put the times, lined up with ticks
+	 */
+	void toMicros(int[] ticks, int from, int to, long[] micros) {
+		int segment = 0;
+		for (int i = from; i < to; i++) {
+			int tick = ticks[i];
+
+			// Check the current segment and the next before searching
+			if (tick < this.ticks[segment]) {
+				segment = segmentAt(tick);
+			} else if (segment + 1 < size && tick >= this.ticks[segment + 1]) {
+				segment++;
+				if (segment + 1 < size && tick >= this.ticks[segment + 1]) segment = segmentAt(tick);
+			}
+			micros[i] = toMicros(tick, segment);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getPpq() {
+		return ppq;
+	}
+
+	int getTick(int segment) {
+		return ticks[segment];
+	}
+
+	/**
+	 * @param segment the index of the segment
+	 * @return the tempo in microseconds per quarter
+	 */
+	int getTempo(int segment) {
+		return tempos[segment];
+	}
+
+	/**
+	 * @param segment the index of the segment
+	 * @return the tempo in beats per minute, rounded
+	 */
+	int getBpm(int segment) {
+		return Math.round(60000000 / (float) tempos[segment]);
+	}
+
+	KeySignature getKeySignature(int segment) {
+		return keySigs[segment] < 0 ? null : KEY_SIGNATURES[keySigs[segment]];
+	}
+
+	int getBpb(int segment) {
+		return MidiEvents.getBpb(timeSigs[segment]);
+	}
+
+	int getBeatNote(int segment) {
+		return MidiEvents.getBeatNote(timeSigs[segment]);
+	}
+}
@@ -0,0 +1,603 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hmm.BatchDecoder;
+import hmm.CPT;
+import hmm.CompiledHMM;
+import hmm.HMMObservable;
+import hmm.HMMObservations;
+import hmm.OnlineDecoder;
+
+/**
+ * Behavior checks for the parts that can break without it showing in the analysis output. The
+ * project has no test framework, so each check prints what it found and the exit code says
+ * whether they all passed. Every check runs on its own thread with a time limit, so a hang
+ * shows up as a failure instead of a stuck run.
+ *
+ * Usage: SelfCheck [pipeline|sink|tempo [files]|merge [files]|hmm|all]
+ * @author Alumina
+ */
+class SelfCheck {
+
+	private static final long TIMEOUT_SECONDS = 30;
+	private static final String SAMPLES = "data/input";
+
+	private static int failures = 0;
+
+	private interface Check {
+		void run() throws Exception;
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) failures++;
+		sop((ok ? "  ok   " : "  FAIL ") + what);
+	}
+
+	/**
+	 * Runs a check, failing it if it throws or doesn't finish in time
+	 */
+	private static void run(String name, Check check) throws InterruptedException {
+		sop(name);
+		Throwable[] thrown = new Throwable[1];
+		Thread thread = new Thread(() -> {
+			try {
+				check.run();
+			} catch (Throwable e) {
+				thrown[0] = e;
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		if (thread.isAlive()) check(false, "finished within " + TIMEOUT_SECONDS + " s");
+		else if (thrown[0] != null) check(false, "threw " + thrown[0]);
+	}
+
+	/**
+	 * Backpressure, end markers and error handling of {@link Pipeline}
+	 */
+	private static void pipeline() throws InterruptedException {
+		run("every item gets through small queues on several threads", () -> {
+			List<Integer> out = Collections.synchronizedList(new ArrayList<>());
+			Pipeline<int[]> pipeline = new Pipeline<int[]>((item, stage, e) -> {})
+					.addStage("double", 3, 1, item -> item[0] *= 2)
+					.addStage("add", 2, 1, item -> item[0] += 1)
+					.addStage("collect", 1, 1, item -> out.add(item[0]))
+					.start();
+			for (int i = 0; i < 1000; i++) pipeline.submit(new int[] { i });
+			pipeline.finish();
+			Collections.sort(out);
+			boolean all = out.size() == 1000;
+			for (int i = 0; all && i < 1000; i++) all = out.get(i) == i * 2 + 1;
+			check(all, "1000 items in, 1000 items out, each through every stage");
+			check(pipeline.getStats().get(0).getPeakDepth() <= 1, "queues never go over capacity");
+		});
+
+		run("an Error in a step is reported and doesn't stall the pipeline", () -> {
+			AtomicInteger reported = new AtomicInteger();
+			AtomicInteger through = new AtomicInteger();
+			Pipeline<Integer> pipeline = new Pipeline<Integer>((item, stage, e) -> {
+				if (item == 3 && stage.equals("first") && e instanceof StackOverflowError) reported.incrementAndGet();
+			})
+					.addStage("first", 1, 2, item -> {
+						if (item == 3) throw new StackOverflowError();
+					})
+					.addStage("second", 1, 2, item -> through.incrementAndGet())
+					.start();
+			for (int i = 0; i < 50; i++) pipeline.submit(i);
+			pipeline.finish();
+			check(reported.get() == 1, "the failed item went to the error handler");
+			check(through.get() == 49, "every other item got through");
+			check(pipeline.getStats().get(0).getFailed() == 1, "the failure was counted");
+		});
+
+		run("exceptions in any stage are reported, the rest carry on", () -> {
+			AtomicInteger reported = new AtomicInteger();
+			AtomicInteger through = new AtomicInteger();
+			Pipeline<Integer> pipeline = new Pipeline<Integer>((item, stage, e) -> reported.incrementAndGet())
+					.addStage("first", 2, 1, item -> {
+						if (item % 10 == 0) throw new IllegalStateException("bad " + item);
+					})
+					.addStage("second", 2, 1, item -> {
+						if (item % 10 == 5) throw new java.io.IOException("bad " + item);
+					})
+					.addStage("last", 1, 1, item -> through.incrementAndGet())
+					.start();
+			for (int i = 0; i < 100; i++) pipeline.submit(i);
+			pipeline.finish();
+			check(reported.get() == 20, "20 failures reported");
+			check(through.get() == 80, "80 items got through");
+		});
+
+		run("a throwing error handler is rethrown from finish", () -> {
+			Pipeline<Integer> pipeline = new Pipeline<Integer>((item, stage, e) -> {
+				throw new IllegalArgumentException("handler");
+			})
+					.addStage("only", 1, 1, item -> {
+						throw new IllegalStateException();
+					})
+					.start();
+			for (int i = 0; i < 5; i++) pipeline.submit(i);
+			boolean threw = false;
+			try {
+				pipeline.finish();
+			} catch (IllegalStateException e) {
+				threw = e.getCause() instanceof IllegalArgumentException;
+			}
+			check(threw, "finish threw with the handler's exception as the cause");
+		});
+
+		run("an empty pipeline finishes", () -> {
+			Pipeline<Integer> pipeline = new Pipeline<Integer>((item, stage, e) -> {})
+					.addStage("first", 2, 1, item -> {})
+					.addStage("second", 2, 1, item -> {})
+					.start();
+			pipeline.finish();
+			check(pipeline.getStats().get(1).getProcessed() == 0, "nothing processed");
+		});
+	}
+
+	/**
+	 * Error reporting and shutdown of {@link AsyncSink}
+	 */
+	private static void sink() throws InterruptedException {
+		run("a failed write is thrown from close, which still closes the sink", () -> {
+			AtomicInteger closed = new AtomicInteger();
+			AsyncSink sink = new AsyncSink(new OutputSink() {
+				@Override
+				public void println(String line) throws java.io.IOException {
+					throw new java.io.IOException("disk full");
+				}
+
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			}, 4);
+			sink.println("first");
+			for (int i = 0; i < 100; i++) {
+				try {
+					sink.println("line " + i);
+				} catch (java.io.IOException e) {
+					break;
+				}
+			}
+			boolean threw = false;
+			try {
+				sink.close();
+			} catch (java.io.IOException e) {
+				threw = e.getCause() != null && "disk full".equals(e.getCause().getMessage());
+			}
+			check(threw, "close threw the write error");
+			check(closed.get() == 1, "the sink was closed");
+			sink.close();
+			check(closed.get() == 1, "closing again does nothing");
+		});
+
+		run("an unchecked exception from the sink is thrown wrapped and doesn't block producers", () -> {
+			AtomicInteger closed = new AtomicInteger();
+			AsyncSink sink = new AsyncSink(new OutputSink() {
+				@Override
+				public void println(String line) {
+					throw new IllegalStateException("broken sink");
+				}
+
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			}, 2);
+			Throwable cause = null;
+			for (int i = 0; i < 1000 && cause == null; i++) {
+				try {
+					sink.println("line " + i);
+				} catch (java.io.IOException e) {
+					cause = e.getCause();
+				}
+			}
+			check(cause instanceof IllegalStateException, "println threw with the sink's exception as the cause");
+			boolean threw = false;
+			try {
+				sink.close();
+			} catch (java.io.IOException e) {
+				threw = e.getCause() instanceof IllegalStateException;
+			}
+			check(threw, "close threw it too");
+			check(closed.get() == 1, "the sink was closed");
+		});
+
+		run("an Error from flush is thrown from close", () -> {
+			AtomicInteger flushes = new AtomicInteger();
+			AsyncSink sink = new AsyncSink(new OutputSink() {
+				@Override
+				public void println(String line) {}
+
+				// Only the writer thread's flush fails, not the one close does on the way out
+				@Override
+				public void flush() {
+					if (flushes.incrementAndGet() == 1) throw new OutOfMemoryError("flush");
+				}
+			}, 2);
+			sink.println("line");
+			sink.flush();
+			boolean threw = false;
+			try {
+				sink.close();
+			} catch (java.io.IOException e) {
+				threw = e.getCause() instanceof OutOfMemoryError;
+			}
+			check(threw, "close threw with the Error as the cause");
+		});
+
+		run("every line is written before close returns", () -> {
+			List<String> out = Collections.synchronizedList(new ArrayList<>());
+			AsyncSink sink = new AsyncSink(out::add, 2);
+			for (int i = 0; i < 1000; i++) sink.println(Integer.toString(i));
+			sink.close();
+			boolean all = out.size() == 1000;
+			for (int i = 0; all && i < 1000; i++) all = out.get(i).equals(Integer.toString(i));
+			check(all, "1000 lines written in order");
+		});
+	}
+
+	/**
+	 * Tick and time conversion of {@link SegmentTable} against rescanning the tempo events for
+	 * every tick, with the elapsed time kept exact as microseconds * ppq
+	 * @param files the mf2t or midi files to take the tempo events from
+	 */
+	private static void tempo(List<File> files) throws InterruptedException {
+		run("ticks convert to the same time as a rescan of the tempo events", () -> {
+			for (File file : files) {
+				MidiData data = NoteSequence.read(file);
+				MidiEvents conductor = data.getConductor();
+				int ppq = data.getPpq();
+				SegmentTable segments = SegmentTable.build(conductor, ppq);
+				NoteSequence sequence = new NoteSequence(data);
+				int[] ticks = new int[sequence.size()];
+				for (int i = 0; i < ticks.length; i++) ticks[i] = sequence.get(i).getTimeStamp();
+				int last = ticks.length == 0 ? 0 : ticks[ticks.length - 1];
+				if (conductor.size() > 0) last = Math.max(last, conductor.getTick(conductor.size() - 1));
+				last += ppq;
+
+				boolean micros = true;
+				for (int tick = 0; micros && tick <= last; tick++) micros = segments.toMicros(tick) == rescan(conductor, tick) / ppq;
+
+				// toTick should give the tick sounding at the time, the last one that starts at or before it
+				boolean toTick = true;
+				long end = segments.toMicros(last);
+				for (long m = 0; toTick && m <= end; m += 997) {
+					int tick = segments.toTick(m);
+					toTick = rescan(conductor, tick) <= m * ppq && rescan(conductor, tick + 1) > m * ppq;
+				}
+
+				// In order, the way the batch is meant to be used, and backwards so every lookup searches
+				long[] batch = new long[ticks.length];
+				segments.toMicros(ticks, 0, ticks.length, batch);
+				boolean ascending = true;
+				for (int i = 0; ascending && i < ticks.length; i++) ascending = batch[i] == segments.toMicros(ticks[i]);
+				int[] reversed = new int[ticks.length];
+				for (int i = 0; i < ticks.length; i++) reversed[i] = ticks[ticks.length - 1 - i];
+				segments.toMicros(reversed, 0, reversed.length, batch);
+				boolean descending = true;
+				for (int i = 0; descending && i < reversed.length; i++) descending = batch[i] == segments.toMicros(reversed[i]);
+
+				check(micros && toTick && ascending && descending, file.getName() + ", " + segments.size() + " segments, ticks 0 to " + last);
+			}
+		});
+	}
+
+	/**
+	 * @return the time of a tick in microseconds * ppq, adding up every tempo event before it
+	 */
+	private static long rescan(MidiEvents conductor, int tick) {
+		long scaled = 0;
+		int from = 0;
+		int tempo = 500000;
+		for (int e = 0; e < conductor.size() && conductor.getTick(e) <= tick; e++) {
+			if (conductor.getType(e) != MidiEvents.TEMPO) continue;
+			scaled += (long) (conductor.getTick(e) - from) * tempo;
+			from = conductor.getTick(e);
+			tempo = conductor.getValue(e);
+		}
+		return scaled + (long) (tick - from) * tempo;
+	}
+
+	/**
+	 * The one pass merge of {@link NoteTrack#NoteTrack(int, List)} against the loop it replaced,
+	 * which merged two tracks at a time and was chained over the rest. Every sample is merged
+	 * as it is, then with each track split into three by key so the old loop has to chain.
+	 *
+	 * The results have to match apart from the changes the one pass merge made on purpose:
+	 * - the old loop never finishes when one track runs out while the other has two or more
+	 *   clusters left;
+	 * - when the second track runs out first, it drops the first track's last clusters;
+	 * - a track with two note ons for the same key on the same tick keeps a stray copy of the
+	 *   note, which the two merges carry along differently. Those files have to match once the
+	 *   repeated note ons are dropped.
+	 * @param files the mf2t or midi files to merge the tracks of
+	 */
+	private static void merge(List<File> files) throws InterruptedException {
+		run("merging all tracks at once matches the old pairwise loop", () -> {
+			int chained = 0;
+			for (File file : files) {
+				MidiData data = NoteSequence.read(file);
+				SegmentTable segments = SegmentTable.build(data.getConductor(), data.getPpq());
+				for (int parts : new int[] { 1, 3 }) {
+					List<NoteTrack> tracks = buildTracks(data, segments, parts, false);
+					if (tracks.size() < 2) continue;
+					String what = file.getName() + ", " + tracks.size() + " tracks: ";
+					NoteTrack expected = oldMerge(segments, tracks);
+					NoteTrack actual = new NoteTrack(0, tracks);
+
+					if (expected == null) {
+						check(true, what + "the old loop never finishes");
+						continue;
+					}
+					if (tracks.size() > 2) chained++;
+					int same = sameClusters(expected, actual);
+					if (same == expected.size() && same == actual.size()) {
+						check(true, what + "same " + same + " clusters");
+					} else if (same == expected.size() - 1 && actual.size() > expected.size()) {
+						check(true, what + "the old loop stops " + (actual.size() - expected.size()) + " clusters early");
+					} else {
+						// Only repeated note ons may explain the rest
+						List<NoteTrack> cleaned = buildTracks(data, segments, parts, true);
+						NoteTrack cleanedExpected = oldMerge(segments, cleaned);
+						NoteTrack cleanedActual = new NoteTrack(0, cleaned);
+						boolean explained = cleanedExpected != null && cleanedExpected.size() == cleanedActual.size()
+								&& sameClusters(cleanedExpected, cleanedActual) == cleanedActual.size();
+						check(explained, what + (explained ? "differs only by repeated note ons" : "differs at cluster " + same));
+					}
+				}
+			}
+			check(chained > 0, "the old loop finished chaining three or more tracks at least once");
+		});
+	}
+
+	/**
+	 * @return how many clusters at the start of both tracks are the same
+	 */
+	private static int sameClusters(NoteTrack expected, NoteTrack actual) {
+		int n = Math.min(expected.size(), actual.size());
+		for (int i = 0; i < n; i++) {
+			NoteCluster e = expected.get(i), a = actual.get(i);
+			if (e.getTimeStamp() != a.getTimeStamp() || e.getDuration() != a.getDuration()) return i;
+			if (!e.toString().equals(a.toString())) return i;
+		}
+		return n;
+	}
+
+	/**
+	 * Builds the tracks the way NoteSequence does, optionally splitting each one by key
+	 * @param parts how many tracks to make from each one, a key goes to its value mod parts
+	 * @param dropRepeats whether to skip a note on for a key that was already pressed on the tick
+	 * @return the tracks with notes in them
+	 */
+	private static List<NoteTrack> buildTracks(MidiData data, SegmentTable segments, int parts, boolean dropRepeats) {
+		List<NoteTrack> tracks = new ArrayList<>();
+		for (MidiEvents notes : data.getTracks()) {
+			for (int part = 0; part < parts; part++) {
+				int id = tracks.size() + 1;
+				NoteTrack track = new NoteTrack(id, segments, data.isMusescore());
+				int[] pressedAt = new int[128];
+				Arrays.fill(pressedAt, -1);
+				boolean any = false;
+				for (int n = 0; n < notes.size(); n++) {
+					int note = notes.getNote(n);
+					if (note % parts != part) continue;
+					switch (notes.getType(n)) {
+					case MidiEvents.ON:
+						if (dropRepeats && pressedAt[note] == notes.getTick(n)) break;
+						pressedAt[note] = notes.getTick(n);
+						track.NoteOn(notes.getTick(n), note, id);
+						any = true;
+						break;
+					case MidiEvents.OFF:
+						pressedAt[note] = -1;
+						track.NoteOff(notes.getTick(n), note);
+						break;
+					}
+				}
+				track.cluster();
+				if (any) tracks.add(track);
+			}
+		}
+		return tracks;
+	}
+
+	/**
+	 * Chains the old loop over the tracks like NoteSequence did, the first two and then the
+	 * result with each of the others
+	 * @return the merged track, or null if the loop would never finish
+	 */
+	private static NoteTrack oldMerge(SegmentTable segments, List<NoteTrack> tracks) {
+		NoteTrack main = oldMerge(segments, tracks.get(0), tracks.get(1));
+		for (int i = 2; main != null && i < tracks.size(); i++) main = oldMerge(segments, main, tracks.get(i));
+		return main;
+	}
+
+	/**
+	 * The loop that merged two tracks before the one pass merge, as it was apart from the
+	 * metadata it used to copy, which the segments hold now. Where it would have spun forever
+	 * because neither track moves, it gives up instead.
+	 */
+	private static NoteTrack oldMerge(SegmentTable segments, NoteTrack t1, NoteTrack t2) {
+		NoteTrack merged = new NoteTrack(0, segments, t1.isMusescore());
+		Iterator<NoteCluster> itr1 = t1.iterator();
+		Iterator<NoteCluster> itr2 = t2.iterator();
+
+		NoteCluster c1 = null;
+		NoteCluster c2 = null;
+		boolean take1 = true;
+		boolean take2 = true;
+
+		while (itr1.hasNext() || itr2.hasNext()) {
+			boolean moved = false;
+			if (itr1.hasNext() && take1) {
+				c1 = itr1.next();
+				take1 = false;
+				moved = true;
+			}
+			if (itr2.hasNext() && take2) {
+				c2 = itr2.next();
+				take2 = false;
+				moved = true;
+			}
+			if (!moved) return null;
+
+			if (c1.getTimeStamp() <= c2.getTimeStamp()) {
+				for (HeldNote n : c1.getReleasedNotes()) merged.NoteOff(n.getEndTime(), n.getRawValue());
+				take1 = true;
+			}
+			if (c1.getTimeStamp() >= c2.getTimeStamp()) {
+				for (HeldNote n : c2.getReleasedNotes()) merged.NoteOff(n.getEndTime(), n.getRawValue());
+				take2 = true;
+			}
+			if (take1) {
+				for (HeldNote n : c1.getNotes()) merged.NoteOn(n.getStartTime(), n.getRawValue(), true, n.getTrack());
+			}
+			if (take2) {
+				for (HeldNote n : c2.getNotes()) merged.NoteOn(n.getStartTime(), n.getRawValue(), true, n.getTrack());
+			}
+		}
+		merged.cluster();
+		return merged;
+	}
+
+	/**
+	 * The other decoders of {@link CompiledHMM} against plain {@link CompiledHMM#viterbi(int[])}
+	 * on random models and sequences. The checkpointed, interleaved and online decoders share
+	 * its step code, so their paths have to be the same state for state, ties included. The
+	 * beam decoder only has to match when the beam keeps every state. Some probabilities are
+	 * zero so there are ties, and one model has over 256 states so the backpointers are shorts.
+	 */
+	private static void hmm() throws InterruptedException {
+		int[][] sizes = { { 1, 1 }, { 2, 3 }, { 8, 20 }, { 40, 7 }, { 300, 5 } };
+		for (int[] size : sizes) {
+			int n = size[0];
+			int m = size[1];
+			run("decoders match viterbi with " + n + " states and " + m + " observations", () -> {
+				Random random = new Random(n * 31 + m);
+				for (double zeros : new double[] { 0, 0.5 }) {
+					CompiledHMM model = randomModel(random, n, m, zeros);
+					List<int[]> sequences = new ArrayList<>();
+					for (int T = 0; T < 4; T++) sequences.add(randomSequence(random, m, T));
+					for (int i = 0; i < 20; i++) sequences.add(randomSequence(random, m, 4 + random.nextInt(200)));
+
+					List<List<String>> expected = new ArrayList<>();
+					List<HMMObservations<HMMObservable>> batch = new ArrayList<>();
+					int checkpointed = 0, beam = 0, online = 0;
+					OnlineDecoder decoder = new OnlineDecoder(model, 300);
+					for (int[] sequence : sequences) {
+						int[] path = model.viterbi(sequence);
+						expected.add(model.label(path));
+						batch.add(observations(sequence));
+						if (Arrays.equals(path, model.viterbiCheckpointed(sequence))) checkpointed++;
+						if (Arrays.equals(path, model.viterbiBeam(sequence, n, Double.POSITIVE_INFINITY))) beam++;
+						List<String> labels = new ArrayList<>();
+						for (int observation : sequence) labels.addAll(decoder.push(observation));
+						labels.addAll(decoder.flush());
+						if (labels.equals(model.label(path))) online++;
+					}
+					BatchDecoder batchDecoder = new BatchDecoder(model);
+					boolean interleaved = expected.equals(batchDecoder.decode(batch, null).getPaths());
+					boolean pooled = expected.equals(batchDecoder.decode(batch, ForkJoinPool.commonPool()).getPaths());
+
+					String what = sequences.size() + " sequences, " + (int) (zeros * 100) + "% zeros: ";
+					check(checkpointed == sequences.size(), what + checkpointed + " checkpointed paths match");
+					check(beam == sequences.size(), what + beam + " unbounded beam paths match");
+					check(online == sequences.size(), what + online + " online paths match with a lag past the end");
+					check(interleaved && pooled, what + "interleaved batch matches, on this thread and on a pool");
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param zeros the chance of each probability being zero
+	 * @return a model with random probabilities
+	 */
+	private static CompiledHMM randomModel(Random random, int n, int m, double zeros) {
+		CPT init = new CPT(1, n);
+		CPT trans = new CPT(n, n);
+		CPT emit = new CPT(n, m);
+		List<String> labels = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			labels.add("s" + i);
+			init.set(0, i, random.nextDouble() < zeros ? 0 : random.nextDouble());
+			for (int j = 0; j < n; j++) trans.set(i, j, random.nextDouble() < zeros ? 0 : random.nextDouble());
+			for (int o = 0; o < m; o++) emit.set(i, o, random.nextDouble() < zeros ? 0 : random.nextDouble());
+		}
+		return CompiledHMM.compile(init, trans, emit, labels);
+	}
+
+	private static int[] randomSequence(Random random, int m, int T) {
+		int[] sequence = new int[T];
+		for (int t = 0; t < T; t++) sequence[t] = random.nextInt(m);
+		return sequence;
+	}
+
+	private static HMMObservations<HMMObservable> observations(int[] sequence) {
+		List<HMMObservable> list = new ArrayList<>();
+		for (int state : sequence) list.add(() -> state);
+		return new HMMObservations<HMMObservable>() {
+			@Override
+			public int size() {
+				return list.size();
+			}
+
+			@Override
+			public Iterator<HMMObservable> iterator() {
+				return list.iterator();
+			}
+		};
+	}
+
+	private static void sop(Object x) {
+		System.out.println(x);
+	}
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		String mode = args.length > 0 ? args[0] : "all";
+		switch (mode) {
+		case "pipeline":
+			pipeline();
+			break;
+		case "sink":
+			sink();
+			break;
+		case "tempo":
+			tempo(BatchAnalyzer.findFiles(args.length > 1 ? args[1] : SAMPLES));
+			break;
+		case "merge":
+			merge(BatchAnalyzer.findFiles(args.length > 1 ? args[1] : SAMPLES));
+			break;
+		case "hmm":
+			hmm();
+			break;
+		case "all":
+			pipeline();
+			sink();
+			tempo(BatchAnalyzer.findFiles(SAMPLES));
+			merge(BatchAnalyzer.findFiles(SAMPLES));
+			hmm();
+			break;
+		default:
+			sop("Usage: SelfCheck [pipeline|sink|tempo [files]|merge [files]|hmm|all]");
+			System.exit(2);
+		}
+		sop(failures == 0 ? "All checks passed" : failures + " checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,131 @@
+package notepatternanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import hmm.BaumWelch;
+import hmm.CPT;
+import hmm.CompiledHMM;
+import hmm.CountTrainer;
+import hmm.HMM;
+import hmm.SubsetSumEmission;
+
+/**
+ * Trains the chord guessing probabilities on a directory of midi files and writes the new CPTs
+ * next to the alumina ones.
+ *
+ * baumwelch starts from the hand written alumina CPTs and needs no labels. count reads the chord
+ * of every cluster from a labels directory, a file with the same name as each midi file and one
+ * label per line, and counts how often each chord, change and pitch class set comes up. Midi
+ * files without a labels file are skipped.
+ *
+ * Usage: Trainer [baumwelch] [directory] [iterations] [output prefix] [threads]
+ *        Trainer count [directory] [labels directory] [output prefix] [threads]
+ * @author Alumina
+ */
+class Trainer {
+
+	private static final String MODEL = "data/cpt/alumina";
+
+	private static void baumWelch(File[] files, int iterations, String prefix, int threads) throws IOException {
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			long start = System.nanoTime();
+			List<int[]> sequences = new ArrayList<>();
+			for (File file : files) {
+				int[] states = CompiledHMM.states(new NoteSequence(file, pool));
+				if (states.length > 0) sequences.add(states);
+			}
+			sop(String.format("Read %d sequences in %.1f ms", sequences.size(), (System.nanoTime() - start) / 1e6));
+
+			BaumWelch trainer = new BaumWelch(
+					new CPT(MODEL + "Initial1"),
+					new CPT(MODEL + "Transition1"),
+					new SubsetSumEmission(new CPT(MODEL + "Emission1")));
+			for (int i = 1; i <= iterations; i++) {
+				sop("Iteration " + i + ": " + trainer.iterate(sequences, pool));
+			}
+
+			trainer.write(prefix);
+			Files.copy(new File(MODEL + "Labels1").toPath(), new File(prefix + "Labels").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			sop(String.format("Wrote %s* in %.1f ms total", prefix, (System.nanoTime() - start) / 1e6));
+		} finally {
+			if (pool != null) pool.shutdown();
+		}
+	}
+
+	private static void count(File[] files, File labelDir, String prefix, int threads) throws IOException {
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			long start = System.nanoTime();
+			List<String> labels = HMM.readLabels(MODEL + "Labels1");
+			CountTrainer trainer = new CountTrainer(labels, 4096);
+
+			// Each file is parsed, labeled and counted on its own
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (File file : files) {
+				File labelFile = new File(labelDir, file.getName());
+				if (!labelFile.isFile()) continue;
+				Runnable task = () -> {
+					int[] states;
+					try {
+						states = CompiledHMM.states(new NoteSequence(file, null));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					List<String> hidden = HMM.readLabels(labelFile.getPath());
+					if (hidden == null) throw new IllegalArgumentException("Couldn't read " + labelFile);
+					try {
+						trainer.add(hidden, states);
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException(labelFile + ": " + e.getMessage(), e);
+					}
+				};
+				if (pool == null) task.run();
+				else tasks.add(pool.submit(task));
+			}
+			for (ForkJoinTask<?> task : tasks) task.join();
+			sop(String.format("Counted %d sequences, %d clusters in %.1f ms",
+					trainer.getSequences(), trainer.getClusters(), (System.nanoTime() - start) / 1e6));
+
+			trainer.write(prefix);
+			Files.copy(new File(MODEL + "Labels1").toPath(), new File(prefix + "Labels").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			sop(String.format("Wrote %s* in %.1f ms total", prefix, (System.nanoTime() - start) / 1e6));
+		} finally {
+			if (pool != null) pool.shutdown();
+		}
+	}
+
+	private static void sop(Object x) {
+		System.out.println(x);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 0 && (args[0].equals("baumwelch") || args[0].equals("count")) ? args[0] : "baumwelch";
+		int a = args.length > 0 && args[0].equals(mode) ? 1 : 0;
+
+		File dir = new File(args.length > a ? args[a] : "data/input");
+		String prefix = args.length > a + 2 ? args[a + 2] : "data/cpt/trained";
+		int threads = args.length > a + 3 ? Integer.parseInt(args[a + 3]) : Runtime.getRuntime().availableProcessors();
+
+		File[] files = dir.listFiles();
+		if (files == null) throw new IllegalArgumentException(dir + " is not a directory");
+		Arrays.sort(files);
+
+		if (mode.equals("count")) {
+			File labelDir = new File(args.length > a + 1 ? args[a + 1] : "data/labels");
+			count(files, labelDir, prefix, threads);
+		} else {
+			int iterations = args.length > a + 1 ? Integer.parseInt(args[a + 1]) : 10;
+			baumWelch(files, iterations, prefix, threads);
+		}
+	}
+}